@@ -0,0 +1,12 @@
+#!/bin/sh
+# Builds the JNI library with the stand-in native methods of XposedBridge.
+# Usage: build.sh <output file>
+set -e
+if [ -z "$JAVA_HOME" ]; then
+	JAVA_HOME=$(dirname "$(dirname "$(readlink -f "$(which javac)")")")
+fi
+# JDK 8 has the headers next to the jre directory
+[ -d "$JAVA_HOME/include" ] || JAVA_HOME="$JAVA_HOME/.."
+${CC:-cc} -O2 -shared -fPIC -Wall \
+	-I"$JAVA_HOME/include" -I"$JAVA_HOME/include/linux" \
+	-o "$1" "$(dirname "$0")/xposedstubs.c"
@@ -0,0 +1,35 @@
+/*
+ * Stand-ins for the native methods of XposedBridge, so that the dispatch pipeline can be
+ * benchmarked on a plain JVM. Methods aren't really hooked: handleHookedMethod() is called
+ * directly by the benchmarks, and "invoking the original method" is a reflective call.
+ */
+#include <jni.h>
+#include <stdint.h>
+
+static jclass nativeStubsClass = NULL;
+static jmethodID invokeOriginalId = NULL;
+
+JNIEXPORT jint JNICALL Java_de_robv_android_xposed_XposedBridge_getMethodId(JNIEnv* env, jclass clazz, jobject reflectedMethod) {
+	/* Dalvik uses the Method* pointer, the jmethodID is the closest equivalent */
+	return (jint) (intptr_t) (*env)->FromReflectedMethod(env, reflectedMethod);
+}
+
+JNIEXPORT void JNICALL Java_de_robv_android_xposed_XposedBridge_hookMethodNative(JNIEnv* env, jclass clazz, jclass declaringClass, jint slot) {
+	/* nothing to do, the benchmarks call handleHookedMethod() themselves */
+}
+
+JNIEXPORT jobject JNICALL Java_de_robv_android_xposed_XposedBridge_invokeOriginalMethodNative(JNIEnv* env, jclass clazz,
+		jobject method, jobjectArray parameterTypes, jclass returnType, jobject thisObject, jobjectArray args) {
+	if (invokeOriginalId == NULL) {
+		jclass local = (*env)->FindClass(env, "de/robv/android/xposed/benchmark/NativeStubs");
+		if (local == NULL)
+			return NULL;
+		nativeStubsClass = (*env)->NewGlobalRef(env, local);
+		invokeOriginalId = (*env)->GetStaticMethodID(env, nativeStubsClass, "invokeOriginal",
+				"(Ljava/lang/reflect/Member;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+		if (invokeOriginalId == NULL)
+			return NULL;
+	}
+	/* exceptions (InvocationTargetException in particular) stay pending and are thrown in Java */
+	return (*env)->CallStaticObjectMethod(env, nativeStubsClass, invokeOriginalId, method, thisObject, args);
+}
@@ -0,0 +1,73 @@
+package de.robv.android.xposed.benchmark;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XC_MethodReplacement;
+
+/** Typical callbacks, as modules would register them. */
+public final class Callbacks {
+	private Callbacks() {}
+
+	/** The kind of callback chain installed on a method. */
+	public enum Kind {
+		/** only before/after callbacks */
+		BEFORE_AFTER,
+		/** a replacement with the highest priority, followed by before/after callbacks */
+		REPLACEMENT,
+		/** a constant replacement with the highest priority, followed by before/after callbacks */
+		CONSTANT,
+		/** before/after callbacks, one of which throws on every call */
+		THROWING
+	}
+
+	public static XC_MethodHook beforeAfter(int priority) {
+		return new XC_MethodHook(priority) {
+			@Override
+			protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+				param.args[0] = (Integer) param.args[0] + 1;
+			}
+
+			@Override
+			protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+				if (param.getResult() == null)
+					param.setResult(0);
+			}
+		};
+	}
+
+	public static XC_MethodHook throwing(int priority) {
+		return new XC_MethodHook(priority) {
+			@Override
+			protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+				throw new IllegalStateException("callback failed");
+			}
+		};
+	}
+
+	public static XC_MethodHook replacement(int priority) {
+		return new XC_MethodReplacement(priority) {
+			@Override
+			protected Object replaceHookedMethod(MethodHookParam param) throws Throwable {
+				return (Integer) param.args[0] * 2;
+			}
+		};
+	}
+
+	/**
+	 * Creates the callbacks for a chain of the given kind and length, highest priority first.
+	 */
+	public static XC_MethodHook[] create(Kind kind, int count) {
+		XC_MethodHook[] callbacks = new XC_MethodHook[count];
+		for (int i = 0; i < count; i++) {
+			int priority = XC_MethodHook.PRIORITY_DEFAULT + count - i;
+			if (i == 0 && kind == Kind.REPLACEMENT)
+				callbacks[i] = replacement(XC_MethodHook.PRIORITY_HIGHEST);
+			else if (i == 0 && kind == Kind.CONSTANT)
+				callbacks[i] = XC_MethodReplacement.returnConstant(XC_MethodHook.PRIORITY_HIGHEST, 42);
+			else if (i == count / 2 && kind == Kind.THROWING)
+				callbacks[i] = throwing(priority);
+			else
+				callbacks[i] = beforeAfter(priority);
+		}
+		return callbacks;
+	}
+}
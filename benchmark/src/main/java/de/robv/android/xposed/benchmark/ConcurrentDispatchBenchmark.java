@@ -0,0 +1,89 @@
+package de.robv.android.xposed.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Throughput of calls to the same hooked method from several threads, e.g. UI and binder threads
+ * calling a hooked framework method at the same time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentDispatchBenchmark {
+	@State(Scope.Benchmark)
+	public static class HookedMethod {
+		public int methodId;
+
+		@Setup(Level.Trial)
+		public void setup() throws Throwable {
+			NativeStubs.init();
+			for (XC_MethodHook callback : Callbacks.create(Callbacks.Kind.BEFORE_AFTER, 5))
+				XposedBridge.hookMethod(Target.method("compute"), callback);
+			methodId = NativeStubs.getMethodId(Target.method("compute"));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Caller {
+		public final Target target = new Target();
+		public final Object[] args = new Object[] { 1 };
+	}
+
+	private static Object dispatch(HookedMethod method, Caller caller) throws Throwable {
+		return NativeStubs.handleHookedMethod(method.methodId, caller.target, caller.args);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object threads01(HookedMethod method, Caller caller) throws Throwable {
+		return dispatch(method, caller);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public Object threads02(HookedMethod method, Caller caller) throws Throwable {
+		return dispatch(method, caller);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Object threads04(HookedMethod method, Caller caller) throws Throwable {
+		return dispatch(method, caller);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object threads08(HookedMethod method, Caller caller) throws Throwable {
+		return dispatch(method, caller);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public Object threads16(HookedMethod method, Caller caller) throws Throwable {
+		return dispatch(method, caller);
+	}
+
+	@Benchmark
+	@Threads(32)
+	public Object threads32(HookedMethod method, Caller caller) throws Throwable {
+		return dispatch(method, caller);
+	}
+}
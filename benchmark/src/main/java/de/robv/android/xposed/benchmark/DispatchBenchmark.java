@@ -0,0 +1,77 @@
+package de.robv.android.xposed.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Single-threaded cost of a call to a hooked method, depending on the number and kind of callbacks.
+ * With 0 callbacks, the method has been hooked and unhooked again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+	@Param({"0", "1", "5", "20"})
+	public int callbacks;
+
+	@Param({"BEFORE_AFTER", "REPLACEMENT", "CONSTANT", "THROWING"})
+	public Callbacks.Kind kind;
+
+	private final Target target = new Target();
+	private final Object[] args = new Object[] { 1 };
+	private Method method;
+	private int methodId;
+	private XC_MethodHook.Unhook[] unhooks;
+
+	@Setup(Level.Trial)
+	public void setup() throws Throwable {
+		NativeStubs.init();
+		method = Target.method("compute");
+		methodId = NativeStubs.getMethodId(method);
+
+		XC_MethodHook[] chain = Callbacks.create(kind, Math.max(callbacks, 1));
+		unhooks = new XC_MethodHook.Unhook[chain.length];
+		for (int i = 0; i < chain.length; i++)
+			unhooks[i] = XposedBridge.hookMethod(method, chain[i]);
+
+		if (callbacks == 0)
+			tearDown();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (XC_MethodHook.Unhook unhook : unhooks)
+			unhook.unhook();
+	}
+
+	@Benchmark
+	public Object dispatch() throws Throwable {
+		return NativeStubs.handleHookedMethod(methodId, target, args);
+	}
+
+	/** Baseline: the reflective call that is used to invoke the original method. */
+	@Benchmark
+	public Object original() throws Exception {
+		return method.invoke(target, args);
+	}
+}
@@ -0,0 +1,83 @@
+package de.robv.android.xposed.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.robv.android.xposed.HookBatch;
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.callbacks.XCallback;
+
+/**
+ * Cost of registering callbacks, which is mostly paid during Zygote startup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HookRegistrationBenchmark {
+	/** Number of callbacks which are already registered for the method. */
+	@Param({"1", "20", "100"})
+	public int existing;
+
+	private XC_MethodHook[] callbacks;
+	private XC_MethodHook extra;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		NativeStubs.init();
+		Random random = new Random(42);
+		callbacks = new XC_MethodHook[existing];
+		for (int i = 0; i < existing; i++) {
+			callbacks[i] = Callbacks.beforeAfter(random.nextInt(200));
+			XposedBridge.hookMethod(Target.method("compute2"), callbacks[i]);
+		}
+		extra = Callbacks.beforeAfter(XCallback.PRIORITY_DEFAULT);
+	}
+
+	/** Adds one more callback to a hooked method and removes it again. */
+	@Benchmark
+	public void hookAndUnhook() {
+		XposedBridge.hookMethod(Target.method("compute2"), extra).unhook();
+	}
+
+	/** Hooks the method with all callbacks one by one and unhooks them again. */
+	@Benchmark
+	public void hookIndividually() {
+		Method method = Target.method("compute3");
+		List<XC_MethodHook.Unhook> unhooks = new ArrayList<XC_MethodHook.Unhook>(callbacks.length);
+		for (XC_MethodHook callback : callbacks)
+			unhooks.add(XposedBridge.hookMethod(method, callback));
+		for (XC_MethodHook.Unhook unhook : unhooks)
+			unhook.unhook();
+	}
+
+	/** The same with a {@link HookBatch}. */
+	@Benchmark
+	public void hookBatch() {
+		Method method = Target.method("compute3");
+		HookBatch batch = new HookBatch();
+		for (XC_MethodHook callback : callbacks)
+			batch.add(method, callback);
+		for (XC_MethodHook.Unhook unhook : batch.commit())
+			unhook.unhook();
+	}
+}
@@ -0,0 +1,59 @@
+package de.robv.android.xposed.benchmark;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Loads the stand-in native methods of {@link XposedBridge} and gives the benchmarks access
+ * to the private parts of the dispatch pipeline.
+ */
+public final class NativeStubs {
+	private NativeStubs() {}
+
+	private static final MethodHandle handleHookedMethod;
+	private static final MethodHandle getMethodId;
+
+	static {
+		System.load(new File(System.getProperty("xposed.stubs", "target/libxposedstubs.so")).getAbsolutePath());
+		try {
+			Method handle = XposedBridge.class.getDeclaredMethod("handleHookedMethod", int.class, Object.class, Object[].class);
+			handle.setAccessible(true);
+			handleHookedMethod = MethodHandles.lookup().unreflect(handle);
+
+			Method id = XposedBridge.class.getDeclaredMethod("getMethodId", Member.class);
+			id.setAccessible(true);
+			getMethodId = MethodHandles.lookup().unreflect(id);
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/** Makes sure that the native library has been loaded. */
+	public static void init() {}
+
+	public static int getMethodId(Member method) throws Throwable {
+		return (int) getMethodId.invokeExact(method);
+	}
+
+	/** The same call that a hooked method would do on Android. */
+	public static Object handleHookedMethod(int methodId, Object thisObject, Object[] args) throws Throwable {
+		return handleHookedMethod.invokeExact(methodId, thisObject, args);
+	}
+
+	/** Called by the native stub for <code>invokeOriginalMethodNative</code>. */
+	static Object invokeOriginal(Member method, Object thisObject, Object[] args)
+			throws IllegalAccessException, InvocationTargetException, InstantiationException {
+		if (method instanceof Method) {
+			return ((Method) method).invoke(thisObject, args);
+		} else {
+			return ((Constructor<?>) method).newInstance(args);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package de.robv.android.xposed.benchmark;
+
+import java.lang.reflect.Method;
+
+/** The "framework" methods which are hooked in the benchmarks. */
+public class Target {
+	private int state = 1;
+
+	public int compute(int x) {
+		state = state * 31 + x;
+		return state;
+	}
+
+	public static Method method(String name) {
+		try {
+			return Target.class.getDeclaredMethod(name, int.class);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int compute2(int x) {
+		return compute(x);
+	}
+
+	public int compute3(int x) {
+		return compute(x);
+	}
+}
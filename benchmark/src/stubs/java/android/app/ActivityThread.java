@@ -0,0 +1,13 @@
+package android.app;
+
+import android.content.pm.ApplicationInfo;
+import android.content.res.CompatibilityInfo;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class ActivityThread {
+	public LoadedApk getPackageInfoNoCheck(ApplicationInfo ai, CompatibilityInfo compatInfo) {
+		return null;
+	}
+}
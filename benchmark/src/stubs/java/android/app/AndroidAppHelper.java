@@ -0,0 +1,33 @@
+package android.app;
+
+import android.content.res.CompatibilityInfo;
+import android.content.res.Configuration;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class AndroidAppHelper {
+	public static String currentProcessName() {
+		return null;
+	}
+
+	public static String currentPackageName() {
+		return null;
+	}
+
+	public static Object getActivityThread_mActiveResources(ActivityThread activityThread) {
+		return null;
+	}
+
+	public static Object getActivityThread_mPackages(ActivityThread activityThread) {
+		return null;
+	}
+
+	public static Object createResourcesKey(String resDir, CompatibilityInfo compInfo) {
+		return null;
+	}
+
+	public static Object createResourcesKey(String resDir, int displayId, Configuration overrideConfiguration, CompatibilityInfo compInfo) {
+		return null;
+	}
+}
@@ -0,0 +1,24 @@
+package android.app;
+
+import android.content.pm.ApplicationInfo;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class LoadedApk {
+	public String getPackageName() {
+		return null;
+	}
+
+	public String getResDir() {
+		return null;
+	}
+
+	public ClassLoader getClassLoader() {
+		return null;
+	}
+
+	public ApplicationInfo getApplicationInfo() {
+		return null;
+	}
+}
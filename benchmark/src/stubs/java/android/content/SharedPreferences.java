@@ -0,0 +1,27 @@
+package android.content;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public interface SharedPreferences {
+	public interface Editor {
+	}
+
+	public interface OnSharedPreferenceChangeListener {
+	}
+
+	Map<String, ?> getAll();
+	String getString(String key, String defValue);
+	Set<String> getStringSet(String key, Set<String> defValues);
+	int getInt(String key, int defValue);
+	long getLong(String key, long defValue);
+	float getFloat(String key, float defValue);
+	boolean getBoolean(String key, boolean defValue);
+	boolean contains(String key);
+	Editor edit();
+	void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+	void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+}
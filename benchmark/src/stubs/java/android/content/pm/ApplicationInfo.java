@@ -0,0 +1,12 @@
+package android.content.pm;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class ApplicationInfo {
+	public String packageName;
+	public String processName;
+	public String sourceDir;
+	public String publicSourceDir;
+	public int uid;
+}
@@ -0,0 +1,16 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class AssetManager {
+	public InputStream open(String fileName) throws IOException {
+		throw new IOException(fileName);
+	}
+
+	public void close() {
+	}
+}
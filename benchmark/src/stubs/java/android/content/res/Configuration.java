@@ -0,0 +1,7 @@
+package android.content.res;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class Configuration {
+}
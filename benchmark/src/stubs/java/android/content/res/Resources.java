@@ -0,0 +1,14 @@
+package android.content.res;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class Resources {
+	public static Resources getSystem() {
+		return null;
+	}
+
+	public AssetManager getAssets() {
+		return null;
+	}
+}
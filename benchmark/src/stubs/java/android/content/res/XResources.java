@@ -0,0 +1,38 @@
+package android.content.res;
+
+import de.robv.android.xposed.callbacks.XC_LayoutInflated;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class XResources extends Resources {
+	public XResources(Resources parent, String resDir) {
+	}
+
+	public static void init() {
+	}
+
+	public static void setPackageNameForResDir(String packageName, String resDir) {
+	}
+
+	public static void unhookLayout(String resDir, int id, XC_LayoutInflated callback) {
+	}
+
+	public String getPackageName() {
+		return null;
+	}
+
+	public boolean checkFirstLoad() {
+		return false;
+	}
+
+	public boolean isInited() {
+		return true;
+	}
+
+	public void setInited(boolean inited) {
+	}
+
+	public static class ResourceNames {
+	}
+}
@@ -0,0 +1,10 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = 15;
+	}
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class Bundle {
+	private final HashMap<String, Object> map = new HashMap<String, Object>();
+
+	public Serializable getSerializable(String key) {
+		return (Serializable) map.get(key);
+	}
+
+	public void putSerializable(String key, Serializable value) {
+		map.put(key, value);
+	}
+}
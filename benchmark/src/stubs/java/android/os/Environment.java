@@ -0,0 +1,12 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class Environment {
+	public static File getDataDirectory() {
+		return new File("/data");
+	}
+}
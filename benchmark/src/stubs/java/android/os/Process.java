@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class Process {
+	public static int myPid() {
+		return 0;
+	}
+
+	public static int myUid() {
+		return 0;
+	}
+}
@@ -0,0 +1,9 @@
+package com.android.internal.os;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class RuntimeInit {
+	public static final void main(String[] argv) {
+	}
+}
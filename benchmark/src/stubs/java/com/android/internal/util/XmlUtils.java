@@ -0,0 +1,16 @@
+package com.android.internal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class XmlUtils {
+	@SuppressWarnings("rawtypes")
+	public static final HashMap readMapXml(InputStream in) throws XmlPullParserException, IOException {
+		return new HashMap();
+	}
+}
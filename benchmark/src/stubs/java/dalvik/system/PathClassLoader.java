@@ -0,0 +1,10 @@
+package dalvik.system;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class PathClassLoader extends ClassLoader {
+	public PathClassLoader(String path, ClassLoader parent) {
+		super(parent);
+	}
+}
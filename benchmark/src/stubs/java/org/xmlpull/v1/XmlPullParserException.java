@@ -0,0 +1,8 @@
+package org.xmlpull.v1;
+
+/**
+ * Stand-in for the Android class of the same name, just enough to compile and run the benchmarks.
+ */
+public class XmlPullParserException extends Exception {
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,56 @@
+package de.robv.android.xposed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class MemberCacheTest {
+	private static final int THREADS = 32;
+	private static final int MAX_SIZE = 256;
+	private static final int KEYS_PER_THREAD = 2000;
+
+	/** Many threads fill the cache at once, so that several of them evict entries at the same time. */
+	@Test
+	public void sizeStaysBoundedAndExact() throws Exception {
+		final MemberCache<Integer, String> cache = new MemberCache<Integer, String>(MAX_SIZE);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int first = i * KEYS_PER_THREAD;
+			threads[i] = new Thread("fill-" + i) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int key = first; key < first + KEYS_PER_THREAD; key++) {
+						if ((key & 1) == 0)
+							cache.put(key, "value");
+						else
+							cache.putNotFound(key);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		int cached = 0;
+		for (int key = 0; key < THREADS * KEYS_PER_THREAD; key++) {
+			Object value = cache.get(key);
+			if (value != null) {
+				assertEquals(((key & 1) == 0) ? "value" : MemberCache.NOT_FOUND, value);
+				cached++;
+			}
+		}
+		assertEquals("size counter", cached, cache.size());
+		assertTrue("too many entries: " + cached, cached <= MAX_SIZE);
+	}
+}
@@ -0,0 +1,130 @@
+package de.robv.android.xposed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Calls the member lookups of {@link XposedHelpers} from many threads at once, so that they
+ * read, fill and evict the shared caches concurrently.
+ */
+public class XposedHelpersConcurrencyTest {
+	private static final int THREADS = 32;
+	private static final int ITERATIONS = 5000;
+	/** More names than the caches can hold, so that entries are evicted while other threads read them. */
+	private static final int MISSING_NAMES = 10000;
+
+	@SuppressWarnings("unused")
+	private static class Base {
+		protected int baseField;
+		public void baseMethod(int x) {}
+	}
+
+	@SuppressWarnings("unused")
+	private static class Fixture extends Base {
+		private String text;
+		private long number;
+		private Object object;
+		int add(int a, int b) { return a + b; }
+		long add(long a, long b) { return a + b; }
+		Object echo(Object o) { return o; }
+	}
+
+	@Test
+	public void concurrentLookups() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final long seed = i;
+			threads[i] = new Thread("lookup-" + i) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						lookups(new Random(seed));
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		if (!failures.isEmpty()) {
+			AssertionError error = new AssertionError(failures.size() + " of " + THREADS + " threads failed");
+			error.initCause(failures.peek());
+			throw error;
+		}
+	}
+
+	private static void lookups(Random random) throws Exception {
+		Field text = Fixture.class.getDeclaredField("text");
+		Field number = Fixture.class.getDeclaredField("number");
+		Field object = Fixture.class.getDeclaredField("object");
+		Field baseField = Base.class.getDeclaredField("baseField");
+		Method addInt = Fixture.class.getDeclaredMethod("add", int.class, int.class);
+		Method addLong = Fixture.class.getDeclaredMethod("add", long.class, long.class);
+		Method echo = Fixture.class.getDeclaredMethod("echo", Object.class);
+		Method baseMethod = Base.class.getDeclaredMethod("baseMethod", int.class);
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			switch (random.nextInt(10)) {
+				case 0:
+					assertEquals(text, XposedHelpers.findField(Fixture.class, "text"));
+					assertEquals(number, XposedHelpers.findField(Fixture.class, "number"));
+					assertEquals(object, XposedHelpers.findField(Fixture.class, "object"));
+					break;
+				case 1:
+					assertEquals(baseField, XposedHelpers.findField(Fixture.class, "baseField"));
+					break;
+				case 2:
+					assertEquals(addInt, XposedHelpers.findMethodExact(Fixture.class, "add", int.class, int.class));
+					assertEquals(addLong, XposedHelpers.findMethodExact(Fixture.class, "add", long.class, long.class));
+					break;
+				case 3:
+					assertEquals(echo, XposedHelpers.findMethodExact(Fixture.class, "echo", Object.class));
+					break;
+				case 4:
+					assertEquals(addInt, XposedHelpers.findMethodBestMatch(Fixture.class, "add", 1, 2));
+					assertEquals(addLong, XposedHelpers.findMethodBestMatch(Fixture.class, "add", 1L, 2L));
+					break;
+				case 5:
+					assertEquals(echo, XposedHelpers.findMethodBestMatch(Fixture.class, "echo", String.class));
+					assertEquals(baseMethod, XposedHelpers.findMethodBestMatch(Fixture.class, "baseMethod", int.class));
+					break;
+				case 6:
+				case 7:
+					try {
+						XposedHelpers.findField(Fixture.class, "missing" + random.nextInt(MISSING_NAMES));
+						fail("found a field which doesn't exist");
+					} catch (NoSuchFieldError expected) {}
+					break;
+				case 8:
+					try {
+						XposedHelpers.findMethodExact(Fixture.class, "missing" + random.nextInt(MISSING_NAMES), int.class);
+						fail("found a method which doesn't exist");
+					} catch (NoSuchMethodError expected) {}
+					break;
+				default:
+					try {
+						XposedHelpers.findMethodBestMatch(Fixture.class, "missing" + random.nextInt(MISSING_NAMES), 1);
+						fail("found a method which doesn't exist");
+					} catch (NoSuchMethodError expected) {}
+					break;
+			}
+		}
+		assertTrue(XposedHelpers.findField(Fixture.class, "text").isAccessible());
+	}
+}
@@ -0,0 +1,236 @@
+package de.robv.android.xposed;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * Storage for {@link XposedHelpers#setAdditionalInstanceField} and related methods.
+ *
+ * <p>Objects are compared by identity, so <code>equals()</code> and <code>hashCode()</code> of app
+ * classes are never called, and they are only referenced weakly. The map is split into segments
+ * with their own locks, so threads which work with different objects rarely block each other.
+ * Entries for objects which have been garbage-collected are removed whenever a segment is modified.
+ *
+ * <p>The fields of an object are stored in a small array of keys and values, which is only
+ * replaced by a {@link HashMap} if an object has many additional fields.
+ */
+/* package */ final class AdditionalFields {
+	private static final int SEGMENT_COUNT = 16; // must be a power of two
+	private static final int MAX_ARRAY_FIELDS = 8;
+
+	private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+	public AdditionalFields() {
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment();
+	}
+
+	private static int hash(Object obj) {
+		// spread the bits, as identity hash codes don't always use the lower bits well
+		int h = System.identityHashCode(obj);
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> 24) & (SEGMENT_COUNT - 1)];
+	}
+
+	/** Sets a field and returns its previous value. */
+	public Object put(Object obj, String key, Object value) {
+		int hash = hash(obj);
+		return segmentFor(hash).put(obj, hash, key, value);
+	}
+
+	/** Returns the value of a field, or <code>null</code> if it doesn't exist. */
+	public Object get(Object obj, String key) {
+		int hash = hash(obj);
+		return segmentFor(hash).get(obj, hash, key);
+	}
+
+	/** Removes a field and returns its previous value. */
+	public Object remove(Object obj, String key) {
+		int hash = hash(obj);
+		return segmentFor(hash).remove(obj, hash, key);
+	}
+
+	//#################################################################################################
+	/** The additional fields of one object. */
+	private static final class Entry extends WeakReference<Object> {
+		final int hash;
+		Entry next;
+
+		/** Keys and values, alternating. Only used while {@link #map} is <code>null</code>. */
+		Object[] fields = new Object[4];
+		int fieldCount = 0;
+		HashMap<String, Object> map = null;
+
+		Entry(Object obj, int hash, Entry next, ReferenceQueue<Object> queue) {
+			super(obj, queue);
+			this.hash = hash;
+			this.next = next;
+		}
+
+		private int indexOf(String key) {
+			Object[] fields = this.fields;
+			int end = fieldCount * 2;
+			for (int i = 0; i < end; i += 2) {
+				if (fields[i] == key)
+					return i;
+			}
+			for (int i = 0; i < end; i += 2) {
+				if (key.equals(fields[i]))
+					return i;
+			}
+			return -1;
+		}
+
+		Object get(String key) {
+			if (map != null)
+				return map.get(key);
+			int i = indexOf(key);
+			return (i >= 0) ? fields[i + 1] : null;
+		}
+
+		Object put(String key, Object value) {
+			if (map != null)
+				return map.put(key, value);
+
+			int i = indexOf(key);
+			if (i >= 0) {
+				Object old = fields[i + 1];
+				fields[i + 1] = value;
+				return old;
+			}
+
+			if (fieldCount == MAX_ARRAY_FIELDS) {
+				map = new HashMap<String, Object>(MAX_ARRAY_FIELDS * 4);
+				for (int j = 0; j < fieldCount * 2; j += 2)
+					map.put((String) fields[j], fields[j + 1]);
+				map.put(key, value);
+				fields = null;
+				fieldCount = 0;
+				return null;
+			}
+
+			if (fieldCount * 2 == fields.length) {
+				Object[] newFields = new Object[fields.length * 2];
+				System.arraycopy(fields, 0, newFields, 0, fields.length);
+				fields = newFields;
+			}
+			fields[fieldCount * 2] = key;
+			fields[fieldCount * 2 + 1] = value;
+			fieldCount++;
+			return null;
+		}
+
+		Object remove(String key) {
+			if (map != null)
+				return map.remove(key);
+
+			int i = indexOf(key);
+			if (i < 0)
+				return null;
+			Object old = fields[i + 1];
+			// move the last field into the gap
+			int last = (fieldCount - 1) * 2;
+			fields[i] = fields[last];
+			fields[i + 1] = fields[last + 1];
+			fields[last] = null;
+			fields[last + 1] = null;
+			fieldCount--;
+			return old;
+		}
+
+		boolean isEmpty() {
+			return (map != null) ? map.isEmpty() : (fieldCount == 0);
+		}
+	}
+
+	//#################################################################################################
+	/** A hash table with separate chaining, all accesses are synchronized on the segment. */
+	private static final class Segment {
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+		private Entry[] table = new Entry[16];
+		private int size = 0;
+
+		synchronized Object get(Object obj, int hash, String key) {
+			Entry entry = find(obj, hash);
+			return (entry != null) ? entry.get(key) : null;
+		}
+
+		synchronized Object put(Object obj, int hash, String key, Object value) {
+			expungeStaleEntries();
+			Entry entry = find(obj, hash);
+			if (entry == null) {
+				if (size >= table.length - (table.length >>> 2))
+					resize();
+				int index = hash & (table.length - 1);
+				entry = new Entry(obj, hash, table[index], queue);
+				table[index] = entry;
+				size++;
+			}
+			return entry.put(key, value);
+		}
+
+		synchronized Object remove(Object obj, int hash, String key) {
+			expungeStaleEntries();
+			Entry entry = find(obj, hash);
+			if (entry == null)
+				return null;
+			Object old = entry.remove(key);
+			if (entry.isEmpty())
+				unlink(entry);
+			return old;
+		}
+
+		private Entry find(Object obj, int hash) {
+			for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+				if (e.hash == hash && e.get() == obj)
+					return e;
+			}
+			return null;
+		}
+
+		private void unlink(Entry entry) {
+			int index = entry.hash & (table.length - 1);
+			Entry prev = null;
+			for (Entry e = table[index]; e != null; prev = e, e = e.next) {
+				if (e == entry) {
+					if (prev == null)
+						table[index] = e.next;
+					else
+						prev.next = e.next;
+					e.next = null;
+					e.fields = null;
+					e.map = null;
+					size--;
+					return;
+				}
+			}
+		}
+
+		private void expungeStaleEntries() {
+			Object ref;
+			while ((ref = queue.poll()) != null)
+				unlink((Entry) ref);
+		}
+
+		private void resize() {
+			Entry[] oldTable = table;
+			Entry[] newTable = new Entry[oldTable.length * 2];
+			for (int i = 0; i < oldTable.length; i++) {
+				Entry e = oldTable[i];
+				while (e != null) {
+					Entry next = e.next;
+					int index = e.hash & (newTable.length - 1);
+					e.next = newTable[index];
+					newTable[index] = e;
+					e = next;
+				}
+			}
+			table = newTable;
+		}
+	}
+}
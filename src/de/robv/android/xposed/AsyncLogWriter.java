@@ -0,0 +1,173 @@
+package de.robv.android.xposed;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * Writes log records to a {@link LogStore} in a background thread, so that threads which log
+ * don't have to wait for each other or for the disk.
+ *
+ * <p>Records are put into a fixed-size ring buffer without locking. A single writer thread
+ * collects them and writes them in batches, either periodically or once enough data has piled up.
+ * If the buffer is full, new records are dropped and counted instead of blocking the caller.
+ * Summaries for messages suppressed by the {@link LogRateLimiter} are written at the same time.
+ *
+ * <p>Until {@link #start()} is called, every message is written immediately by the calling thread.
+ * This is what Zygote needs, as it must not have any additional threads when it forks.
+ */
+/* package */ final class AsyncLogWriter {
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final long FLUSH_INTERVAL_MILLIS = 500;
+	private static final int FLUSH_THRESHOLD_BYTES = 8 * 1024;
+
+	private final LogStore out;
+	private final LogRateLimiter rateLimiter;
+	private final AtomicReferenceArray<LogRecord> slots;
+	private final int mask;
+	// next sequence number to be claimed by a producer
+	private final AtomicLong tail = new AtomicLong();
+	// next sequence number to be consumed, only written while holding the lock of this object
+	private volatile long head = 0;
+	private final AtomicInteger pendingBytes = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private final List<LogRecord> batch = new ArrayList<LogRecord>();
+	private volatile Thread writerThread = null;
+
+	public AsyncLogWriter(LogStore out, LogRateLimiter rateLimiter) {
+		this(out, rateLimiter, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param out where the records are written to
+	 * @param rateLimiter the rate limiter whose summaries should be written, or <code>null</code>
+	 * @param capacity maximum number of records waiting to be written, must be a power of two
+	 */
+	public AsyncLogWriter(LogStore out, LogRateLimiter rateLimiter, int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+			throw new IllegalArgumentException("capacity must be a power of two");
+		this.out = out;
+		this.rateLimiter = rateLimiter;
+		this.slots = new AtomicReferenceArray<LogRecord>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Queues a record for writing. Never blocks while the background thread is running.
+	 * @return <code>false</code> if the record was dropped because the buffer was full
+	 */
+	public boolean write(LogRecord record) {
+		long seq;
+		do {
+			seq = tail.get();
+			if (seq - head >= slots.length()) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while (!tail.compareAndSet(seq, seq + 1));
+		slots.set((int) seq & mask, record);
+
+		Thread writer = writerThread;
+		if (writer == null) {
+			flush();
+		} else if (pendingBytes.addAndGet(record.estimateSize()) >= FLUSH_THRESHOLD_BYTES) {
+			LockSupport.unpark(writer);
+		}
+		return true;
+	}
+
+	/** Returns the number of records which have been dropped since the last flush. */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes all queued records now. Records whose producer hasn't finished publishing
+	 * them yet are left for the next flush.
+	 */
+	public synchronized void flush() {
+		long seq = head;
+		while (true) {
+			int i = (int) seq & mask;
+			LogRecord record = slots.get(i);
+			if (record == null)
+				break;
+			slots.set(i, null);
+			head = ++seq;
+			batch.add(record);
+		}
+		pendingBytes.set(0);
+
+		int firstSummary = batch.size();
+		long now = System.currentTimeMillis();
+		long droppedNow = dropped.getAndSet(0);
+		if (droppedNow > 0)
+			batch.add(new LogRecord(now, LogRecord.LEVEL_WARN, LogRecord.DEFAULT_TAG, null, LogRecord.MSG_DROPPED,
+					droppedNow + " log messages were dropped", 0, null));
+		if (rateLimiter != null)
+			rateLimiter.collectSummaries(batch, now);
+
+		if (batch.isEmpty())
+			return;
+
+		// the records themselves have already been written to logcat by the caller
+		for (int i = firstSummary; i < batch.size(); i++)
+			Log.i(batch.get(i).tag, batch.get(i).message);
+
+		try {
+			out.write(batch);
+		} catch (IOException ignored) {
+			// nowhere to report this
+		}
+		batch.clear();
+	}
+
+	/**
+	 * Starts the background thread. From now on, messages are written asynchronously.
+	 * Queued messages are also written when the process exits or a thread dies because of
+	 * an uncaught exception.
+	 */
+	public synchronized void start() {
+		if (writerThread != null)
+			return;
+
+		Thread thread = new Thread("XposedLogWriter") {
+			@Override
+			public void run() {
+				while (true) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS));
+					flush();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+
+		Runtime.getRuntime().addShutdownHook(new Thread("XposedLogFlush") {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+
+		final Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				flush();
+				if (defaultHandler != null)
+					defaultHandler.uncaughtException(t, e);
+			}
+		});
+
+		writerThread = thread;
+		thread.start();
+	}
+}
@@ -0,0 +1,189 @@
+package de.robv.android.xposed;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes one field without looking it up by name every time.
+ * Get an instance with {@link XposedHelpers#getFieldAccessor} once and keep it, e.g. in a
+ * static field of the module:
+ *
+ * <pre>
+ * private static final FieldAccessor mBoundApplication =
+ *     XposedHelpers.getFieldAccessor(ActivityThread.class, "mBoundApplication");
+ * ...
+ * Object data = mBoundApplication.get(activityThread);</pre>
+ *
+ * <p>For static fields, pass <code>null</code> as object. The primitive getters and setters don't
+ * box the value. They throw the same exceptions as the corresponding methods in {@link Field}
+ * (e.g. {@link IllegalArgumentException} if the object or value has the wrong type), except that
+ * {@link IllegalAccessException} can't happen as the field is accessible.
+ */
+public final class FieldAccessor {
+	private final Field field;
+
+	/* package */ FieldAccessor(Field field) {
+		this.field = field;
+	}
+
+	/** Returns the field, which has already been made accessible. */
+	public Field getField() {
+		return field;
+	}
+
+	private static IllegalAccessError accessError(IllegalAccessException e) {
+		// should not happen
+		XposedBridge.log(e);
+		return new IllegalAccessError(e.getMessage());
+	}
+
+	//#################################################################################################
+	public Object get(Object obj) {
+		try {
+			return field.get(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public boolean getBoolean(Object obj) {
+		try {
+			return field.getBoolean(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public byte getByte(Object obj) {
+		try {
+			return field.getByte(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public char getChar(Object obj) {
+		try {
+			return field.getChar(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public double getDouble(Object obj) {
+		try {
+			return field.getDouble(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public float getFloat(Object obj) {
+		try {
+			return field.getFloat(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public int getInt(Object obj) {
+		try {
+			return field.getInt(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public long getLong(Object obj) {
+		try {
+			return field.getLong(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public short getShort(Object obj) {
+		try {
+			return field.getShort(obj);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	//#################################################################################################
+	public void set(Object obj, Object value) {
+		try {
+			field.set(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setBoolean(Object obj, boolean value) {
+		try {
+			field.setBoolean(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setByte(Object obj, byte value) {
+		try {
+			field.setByte(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setChar(Object obj, char value) {
+		try {
+			field.setChar(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setDouble(Object obj, double value) {
+		try {
+			field.setDouble(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setFloat(Object obj, float value) {
+		try {
+			field.setFloat(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setInt(Object obj, int value) {
+		try {
+			field.setInt(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setLong(Object obj, long value) {
+		try {
+			field.setLong(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	public void setShort(Object obj, short value) {
+		try {
+			field.setShort(obj, value);
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FieldAccessor[" + field + "]";
+	}
+}
@@ -0,0 +1,326 @@
+package de.robv.android.xposed;
+
+import java.lang.reflect.Field;
+
+/**
+ * A fixed list of fields of one class, which can be read and written together.
+ * Get an instance with {@link XposedHelpers#getFieldSet} once and keep it, like a {@link FieldAccessor}:
+ *
+ * <pre>
+ * private static final FieldSet appBindDataFields =
+ *     XposedHelpers.getFieldSet(appBindDataClass, "processName", "appInfo", "debugMode");
+ * ...
+ * FieldSet.Values values = appBindDataFields.newValues(); // can be reused
+ * appBindDataFields.read(data, values);
+ * String processName = (String) values.getObject(0);
+ * int debugMode = values.getInt(2);</pre>
+ *
+ * <p>The values of primitive fields are stored in a <code>long[]</code> without boxing them,
+ * other values in an <code>Object[]</code>. Fields are referenced by their index in the list
+ * of names passed to {@link XposedHelpers#getFieldSet}.
+ */
+public final class FieldSet {
+	private static final int TYPE_OBJECT = 0;
+	private static final int TYPE_BOOLEAN = 1;
+	private static final int TYPE_BYTE = 2;
+	private static final int TYPE_CHAR = 3;
+	private static final int TYPE_SHORT = 4;
+	private static final int TYPE_INT = 5;
+	private static final int TYPE_LONG = 6;
+	private static final int TYPE_FLOAT = 7;
+	private static final int TYPE_DOUBLE = 8;
+
+	private final Field[] fields;
+	private final int[] types;
+	/** Index in {@link Values#primitives} or {@link Values#objects}, depending on the type */
+	private final int[] slots;
+	private final int primitiveCount;
+	private final int objectCount;
+
+	/* package */ FieldSet(Field[] fields) {
+		this.fields = fields;
+		this.types = new int[fields.length];
+		this.slots = new int[fields.length];
+		int primitives = 0;
+		int objects = 0;
+		for (int i = 0; i < fields.length; i++) {
+			int type = getType(fields[i].getType());
+			types[i] = type;
+			slots[i] = (type == TYPE_OBJECT) ? objects++ : primitives++;
+		}
+		this.primitiveCount = primitives;
+		this.objectCount = objects;
+	}
+
+	private static int getType(Class<?> type) {
+		if (!type.isPrimitive())
+			return TYPE_OBJECT;
+		else if (type == int.class)
+			return TYPE_INT;
+		else if (type == boolean.class)
+			return TYPE_BOOLEAN;
+		else if (type == long.class)
+			return TYPE_LONG;
+		else if (type == float.class)
+			return TYPE_FLOAT;
+		else if (type == double.class)
+			return TYPE_DOUBLE;
+		else if (type == byte.class)
+			return TYPE_BYTE;
+		else if (type == char.class)
+			return TYPE_CHAR;
+		else
+			return TYPE_SHORT;
+	}
+
+	/** Returns the number of fields in this set. */
+	public int size() {
+		return fields.length;
+	}
+
+	/** Returns the field with the given index, which has already been made accessible. */
+	public Field getField(int index) {
+		return fields[index];
+	}
+
+	/** Creates a buffer for the values of the fields in this set. */
+	public Values newValues() {
+		return new Values(this);
+	}
+
+	/**
+	 * Reads all fields of object <code>obj</code> (<code>null</code> if they are all static)
+	 * into <code>values</code>, replacing the previous content.
+	 * @return <code>values</code>
+	 */
+	public Values read(Object obj, Values values) {
+		checkValues(values);
+		long[] primitives = values.primitives;
+		Object[] objects = values.objects;
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				Field field = fields[i];
+				int slot = slots[i];
+				switch (types[i]) {
+					case TYPE_OBJECT:  objects[slot] = field.get(obj); break;
+					case TYPE_BOOLEAN: primitives[slot] = field.getBoolean(obj) ? 1 : 0; break;
+					case TYPE_BYTE:    primitives[slot] = field.getByte(obj); break;
+					case TYPE_CHAR:    primitives[slot] = field.getChar(obj); break;
+					case TYPE_SHORT:   primitives[slot] = field.getShort(obj); break;
+					case TYPE_INT:     primitives[slot] = field.getInt(obj); break;
+					case TYPE_LONG:    primitives[slot] = field.getLong(obj); break;
+					case TYPE_FLOAT:   primitives[slot] = Float.floatToRawIntBits(field.getFloat(obj)); break;
+					case TYPE_DOUBLE:  primitives[slot] = Double.doubleToRawLongBits(field.getDouble(obj)); break;
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes all fields of object <code>obj</code> (<code>null</code> if they are all static)
+	 * from <code>values</code>, e.g. to restore the state that was saved with {@link #read}.
+	 */
+	public void write(Object obj, Values values) {
+		checkValues(values);
+		long[] primitives = values.primitives;
+		Object[] objects = values.objects;
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				Field field = fields[i];
+				int slot = slots[i];
+				switch (types[i]) {
+					case TYPE_OBJECT:  field.set(obj, objects[slot]); break;
+					case TYPE_BOOLEAN: field.setBoolean(obj, primitives[slot] != 0); break;
+					case TYPE_BYTE:    field.setByte(obj, (byte) primitives[slot]); break;
+					case TYPE_CHAR:    field.setChar(obj, (char) primitives[slot]); break;
+					case TYPE_SHORT:   field.setShort(obj, (short) primitives[slot]); break;
+					case TYPE_INT:     field.setInt(obj, (int) primitives[slot]); break;
+					case TYPE_LONG:    field.setLong(obj, primitives[slot]); break;
+					case TYPE_FLOAT:   field.setFloat(obj, Float.intBitsToFloat((int) primitives[slot])); break;
+					case TYPE_DOUBLE:  field.setDouble(obj, Double.longBitsToDouble(primitives[slot])); break;
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw accessError(e);
+		}
+	}
+
+	private void checkValues(Values values) {
+		if (values.set != this)
+			throw new IllegalArgumentException("values were created for a different field set");
+	}
+
+	private static IllegalAccessError accessError(IllegalAccessException e) {
+		// should not happen
+		XposedBridge.log(e);
+		return new IllegalAccessError(e.getMessage());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FieldSet[");
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(fields[i].getName());
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * The values of the fields in a {@link FieldSet}, accessed by the index of the field.
+	 * The typed getters and setters must match the type of the field exactly, otherwise an
+	 * {@link IllegalArgumentException} is thrown. {@link #get} and {@link #set} work for all types
+	 * and box primitive values.
+	 *
+	 * <p>Instances are not thread-safe. Use one instance per thread, or create a new one for each call.
+	 */
+	public static final class Values {
+		private final FieldSet set;
+		private final long[] primitives;
+		private final Object[] objects;
+
+		private Values(FieldSet set) {
+			this.set = set;
+			this.primitives = new long[set.primitiveCount];
+			this.objects = new Object[set.objectCount];
+		}
+
+		/** Returns the field set which these values belong to. */
+		public FieldSet getFieldSet() {
+			return set;
+		}
+
+		/** Removes the references to the values of non-primitive fields, so they can be garbage-collected. */
+		public void clear() {
+			for (int i = 0; i < objects.length; i++)
+				objects[i] = null;
+		}
+
+		private int slot(int index, int type) {
+			if (set.types[index] != type)
+				throw typeError(index);
+			return set.slots[index];
+		}
+
+		private IllegalArgumentException typeError(int index) {
+			Field field = set.fields[index];
+			return new IllegalArgumentException("field " + field.getName() + " has type " + field.getType().getName());
+		}
+
+		//#################################################################################################
+		/** Returns the value of any field, primitive values are boxed. */
+		public Object get(int index) {
+			int slot = set.slots[index];
+			switch (set.types[index]) {
+				case TYPE_BOOLEAN: return Boolean.valueOf(primitives[slot] != 0);
+				case TYPE_BYTE:    return Byte.valueOf((byte) primitives[slot]);
+				case TYPE_CHAR:    return Character.valueOf((char) primitives[slot]);
+				case TYPE_SHORT:   return Short.valueOf((short) primitives[slot]);
+				case TYPE_INT:     return Integer.valueOf((int) primitives[slot]);
+				case TYPE_LONG:    return Long.valueOf(primitives[slot]);
+				case TYPE_FLOAT:   return Float.valueOf(Float.intBitsToFloat((int) primitives[slot]));
+				case TYPE_DOUBLE:  return Double.valueOf(Double.longBitsToDouble(primitives[slot]));
+				default:           return objects[slot];
+			}
+		}
+
+		public Object getObject(int index) {
+			return objects[slot(index, TYPE_OBJECT)];
+		}
+
+		public boolean getBoolean(int index) {
+			return primitives[slot(index, TYPE_BOOLEAN)] != 0;
+		}
+
+		public byte getByte(int index) {
+			return (byte) primitives[slot(index, TYPE_BYTE)];
+		}
+
+		public char getChar(int index) {
+			return (char) primitives[slot(index, TYPE_CHAR)];
+		}
+
+		public short getShort(int index) {
+			return (short) primitives[slot(index, TYPE_SHORT)];
+		}
+
+		public int getInt(int index) {
+			return (int) primitives[slot(index, TYPE_INT)];
+		}
+
+		public long getLong(int index) {
+			return primitives[slot(index, TYPE_LONG)];
+		}
+
+		public float getFloat(int index) {
+			return Float.intBitsToFloat((int) primitives[slot(index, TYPE_FLOAT)]);
+		}
+
+		public double getDouble(int index) {
+			return Double.longBitsToDouble(primitives[slot(index, TYPE_DOUBLE)]);
+		}
+
+		//#################################################################################################
+		/** Sets the value of any field, primitive values must be boxed with the exact type of the field. */
+		public void set(int index, Object value) {
+			int slot = set.slots[index];
+			if (value == null && set.types[index] != TYPE_OBJECT)
+				throw typeError(index);
+			try {
+				switch (set.types[index]) {
+					case TYPE_BOOLEAN: primitives[slot] = ((Boolean) value) ? 1 : 0; break;
+					case TYPE_BYTE:    primitives[slot] = (Byte) value; break;
+					case TYPE_CHAR:    primitives[slot] = (Character) value; break;
+					case TYPE_SHORT:   primitives[slot] = (Short) value; break;
+					case TYPE_INT:     primitives[slot] = (Integer) value; break;
+					case TYPE_LONG:    primitives[slot] = (Long) value; break;
+					case TYPE_FLOAT:   primitives[slot] = Float.floatToRawIntBits((Float) value); break;
+					case TYPE_DOUBLE:  primitives[slot] = Double.doubleToRawLongBits((Double) value); break;
+					default:           objects[slot] = value; break;
+				}
+			} catch (ClassCastException e) {
+				throw typeError(index);
+			}
+		}
+
+		public void setObject(int index, Object value) {
+			objects[slot(index, TYPE_OBJECT)] = value;
+		}
+
+		public void setBoolean(int index, boolean value) {
+			primitives[slot(index, TYPE_BOOLEAN)] = value ? 1 : 0;
+		}
+
+		public void setByte(int index, byte value) {
+			primitives[slot(index, TYPE_BYTE)] = value;
+		}
+
+		public void setChar(int index, char value) {
+			primitives[slot(index, TYPE_CHAR)] = value;
+		}
+
+		public void setShort(int index, short value) {
+			primitives[slot(index, TYPE_SHORT)] = value;
+		}
+
+		public void setInt(int index, int value) {
+			primitives[slot(index, TYPE_INT)] = value;
+		}
+
+		public void setLong(int index, long value) {
+			primitives[slot(index, TYPE_LONG)] = value;
+		}
+
+		public void setFloat(int index, float value) {
+			primitives[slot(index, TYPE_FLOAT)] = Float.floatToRawIntBits(value);
+		}
+
+		public void setDouble(int index, double value) {
+			primitives[slot(index, TYPE_DOUBLE)] = Double.doubleToRawLongBits(value);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package de.robv.android.xposed;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects many hooks and installs them at once with {@link #commit()}. This is faster than
+ * calling {@link XposedBridge#hookMethod} for each of them, as the callbacks for each method are
+ * sorted only once and the registration lock is only taken once.
+ *
+ * <pre>
+ * new HookBatch()
+ *     .add(method1, callback1)
+ *     .add(method2, callback2)
+ *     .addAllConstructors(clazz, callback3)
+ *     .commit();</pre>
+ */
+public final class HookBatch {
+	private final List<Member> methods = new ArrayList<Member>();
+	private final List<XC_MethodHook> callbacks = new ArrayList<XC_MethodHook>();
+	private boolean committed = false;
+
+	/** Adds a hook for a single method or constructor, see {@link XposedBridge#hookMethod}. */
+	public HookBatch add(Member hookMethod, XC_MethodHook callback) {
+		if (!(hookMethod instanceof Method) && !(hookMethod instanceof Constructor<?>))
+			throw new IllegalArgumentException("only methods and constructors can be hooked");
+		if (callback == null)
+			throw new NullPointerException("callback must not be null");
+		checkNotCommitted();
+
+		methods.add(hookMethod);
+		callbacks.add(callback);
+		return this;
+	}
+
+	/** Adds hooks for all methods with the given name, see {@link XposedBridge#hookAllMethods}. */
+	public HookBatch addAllMethods(Class<?> hookClass, String methodName, XC_MethodHook callback) {
+		for (Member method : hookClass.getDeclaredMethods())
+			if (method.getName().equals(methodName))
+				add(method, callback);
+		return this;
+	}
+
+	/** Adds hooks for all constructors, see {@link XposedBridge#hookAllConstructors}. */
+	public HookBatch addAllConstructors(Class<?> hookClass, XC_MethodHook callback) {
+		for (Member constructor : hookClass.getDeclaredConstructors())
+			add(constructor, callback);
+		return this;
+	}
+
+	/** Returns the number of hooks that have been added so far. */
+	public int size() {
+		return methods.size();
+	}
+
+	/**
+	 * Installs all hooks in this batch. A batch can only be committed once.
+	 * @return the {@link XC_MethodHook.Unhook} objects in the order in which the hooks were added
+	 */
+	public List<XC_MethodHook.Unhook> commit() {
+		checkNotCommitted();
+		committed = true;
+		return XposedBridge.hookBatch(methods, callbacks);
+	}
+
+	private void checkNotCommitted() {
+		if (committed)
+			throw new IllegalStateException("this batch has already been committed");
+	}
+}
@@ -0,0 +1,300 @@
+package de.robv.android.xposed;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.Process;
+
+/**
+ * Invocation counts and latencies of hooked methods and their callbacks.
+ * Recording is only done while enabled with {@link XposedBridge#setMetricsEnabled}.
+ * The statistics of a callback are dropped when it is unhooked.
+ */
+public final class HookMetrics {
+	private HookMetrics() {}
+
+	private static final List<MethodStats> allStats = new CopyOnWriteArrayList<MethodStats>();
+	private static Timer dumpTimer = null;
+
+	/**
+	 * A counter which spreads increments from different threads over multiple cells to avoid contention.
+	 */
+	/* package */ static final class StripedCounter {
+		private static final int STRIPES = 8;
+		// only every 8th cell is used so that the stripes are in different cache lines
+		private static final int PADDING = 8;
+		private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+		private static int stripe() {
+			return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+		}
+
+		public void add(long delta) {
+			cells.addAndGet(stripe(), delta);
+		}
+
+		public void increment() {
+			cells.incrementAndGet(stripe());
+		}
+
+		public long get() {
+			long sum = 0;
+			for (int i = 0; i < STRIPES; i++)
+				sum += cells.get(i * PADDING);
+			return sum;
+		}
+	}
+
+	/**
+	 * Latency histogram with logarithmic buckets. Bucket <code>i</code> counts durations
+	 * between 2<sup>i-1</sup> (inclusive) and 2<sup>i</sup> (exclusive) nanoseconds.
+	 */
+	/* package */ static final class Histogram {
+		public static final int BUCKETS = 40;
+		private final StripedCounter count = new StripedCounter();
+		private final StripedCounter totalNanos = new StripedCounter();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		public void record(long nanos) {
+			if (nanos < 0)
+				nanos = 0;
+			int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+			if (bucket >= BUCKETS)
+				bucket = BUCKETS - 1;
+			count.increment();
+			totalNanos.add(nanos);
+			buckets.incrementAndGet(bucket);
+		}
+
+		public HistogramSnapshot snapshot() {
+			long[] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] = buckets.get(i);
+			return new HistogramSnapshot(count.get(), totalNanos.get(), counts);
+		}
+	}
+
+	/** Statistics for one hooked method. */
+	/* package */ static final class MethodStats {
+		public final Member method;
+		public final StripedCounter invocations = new StripedCounter();
+		public final Histogram original = new Histogram();
+		private final Map<XC_MethodHook, CallbackStats> callbacks = new ConcurrentHashMap<XC_MethodHook, CallbackStats>();
+
+		private MethodStats(Member method) {
+			this.method = method;
+		}
+
+		public CallbackStats forCallback(XC_MethodHook callback) {
+			CallbackStats stats = callbacks.get(callback);
+			if (stats == null) {
+				synchronized (this) {
+					stats = callbacks.get(callback);
+					if (stats == null) {
+						stats = new CallbackStats();
+						callbacks.put(callback, stats);
+					}
+				}
+			}
+			return stats;
+		}
+
+		public void removeCallback(XC_MethodHook callback) {
+			callbacks.remove(callback);
+		}
+	}
+
+	/** Statistics for one callback of a hooked method. */
+	/* package */ static final class CallbackStats {
+		public final Histogram before = new Histogram();
+		public final Histogram after = new Histogram();
+	}
+
+	/* package */ static MethodStats createMethodStats(Member method) {
+		MethodStats stats = new MethodStats(method);
+		allStats.add(stats);
+		return stats;
+	}
+
+	/** Forgets the statistics for a method which isn't hooked anymore. */
+	/* package */ static void removeMethodStats(MethodStats stats) {
+		allStats.remove(stats);
+	}
+
+	//#################################################################################################
+	/** Immutable copy of a latency histogram. */
+	public static final class HistogramSnapshot {
+		public final long count;
+		public final long totalNanos;
+		private final long[] buckets;
+
+		private HistogramSnapshot(long count, long totalNanos, long[] buckets) {
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.buckets = buckets;
+		}
+
+		public long getAverageNanos() {
+			return (count != 0) ? totalNanos / count : 0;
+		}
+
+		/**
+		 * Returns an upper bound for the given percentile (0-100) of the recorded durations.
+		 * The result is exact up to the bucket size, i.e. a factor of two.
+		 */
+		public long getPercentileNanos(double percentile) {
+			long total = 0;
+			for (long bucket : buckets)
+				total += bucket;
+			if (total == 0)
+				return 0;
+
+			long threshold = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= threshold)
+					return (i == 0) ? 0 : (1L << i) - 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		/** Number of durations in the given bucket, see {@link #getBucketCount()}. */
+		public long getBucket(int i) {
+			return buckets[i];
+		}
+
+		public int getBucketCount() {
+			return buckets.length;
+		}
+	}
+
+	/** Statistics for one callback, as returned by {@link XposedBridge#getMetricsSnapshot()}. */
+	public static final class CallbackMetrics {
+		public final XC_MethodHook callback;
+		public final HistogramSnapshot before;
+		public final HistogramSnapshot after;
+
+		private CallbackMetrics(XC_MethodHook callback, CallbackStats stats) {
+			this.callback = callback;
+			this.before = stats.before.snapshot();
+			this.after = stats.after.snapshot();
+		}
+	}
+
+	/** Statistics for one hooked method, as returned by {@link XposedBridge#getMetricsSnapshot()}. */
+	public static final class MethodSnapshot {
+		public final Member method;
+		public final long invocations;
+		public final HistogramSnapshot original;
+		public final List<CallbackMetrics> callbacks;
+
+		private MethodSnapshot(MethodStats stats) {
+			this.method = stats.method;
+			this.invocations = stats.invocations.get();
+			this.original = stats.original.snapshot();
+			List<CallbackMetrics> callbacks = new ArrayList<CallbackMetrics>(stats.callbacks.size());
+			for (Map.Entry<XC_MethodHook, CallbackStats> entry : stats.callbacks.entrySet())
+				callbacks.add(new CallbackMetrics(entry.getKey(), entry.getValue()));
+			this.callbacks = Collections.unmodifiableList(callbacks);
+		}
+
+		/** Total time spent in the callbacks and the original method. */
+		public long getTotalNanos() {
+			long total = original.totalNanos;
+			for (CallbackMetrics callback : callbacks)
+				total += callback.before.totalNanos + callback.after.totalNanos;
+			return total;
+		}
+	}
+
+	/* package */ static List<MethodSnapshot> snapshot() {
+		List<MethodSnapshot> result = new ArrayList<MethodSnapshot>(allStats.size());
+		for (MethodStats stats : allStats)
+			result.add(new MethodSnapshot(stats));
+		return result;
+	}
+
+	//#################################################################################################
+	/**
+	 * Writes the current statistics in a human-readable format, the most expensive methods first.
+	 */
+	public static void dump(Writer writer) {
+		List<MethodSnapshot> snapshots = snapshot();
+		Collections.sort(snapshots, new Comparator<MethodSnapshot>() {
+			@Override
+			public int compare(MethodSnapshot lhs, MethodSnapshot rhs) {
+				long l = lhs.getTotalNanos();
+				long r = rhs.getTotalNanos();
+				return (l > r) ? -1 : ((l == r) ? 0 : 1);
+			}
+		});
+
+		PrintWriter pw = new PrintWriter(writer);
+		for (MethodSnapshot method : snapshots) {
+			pw.println(method.method + ": " + method.invocations + " calls, " + (method.getTotalNanos() / 1000) + " us total");
+			pw.println("    original: " + formatHistogram(method.original));
+			for (CallbackMetrics callback : method.callbacks) {
+				pw.println("    " + callback.callback.getClass().getName()
+						+ " (priority " + callback.callback.priority + ")");
+				pw.println("        before: " + formatHistogram(callback.before));
+				pw.println("        after:  " + formatHistogram(callback.after));
+			}
+		}
+		pw.flush();
+	}
+
+	private static String formatHistogram(HistogramSnapshot h) {
+		return h.count + " calls, avg " + (h.getAverageNanos() / 1000) + " us"
+				+ ", p50 <= " + (h.getPercentileNanos(50) / 1000) + " us"
+				+ ", p99 <= " + (h.getPercentileNanos(99) / 1000) + " us";
+	}
+
+	/**
+	 * Periodically writes the statistics to <code>BASE_DIR/log/metrics_&lt;pid&gt;.log</code>.
+	 * A previous periodic dump is stopped. This starts a thread, so don't call it in Zygote.
+	 *
+	 * @param intervalMillis time between two dumps, or 0 to stop dumping
+	 */
+	public static synchronized void startPeriodicDump(long intervalMillis) {
+		if (dumpTimer != null) {
+			dumpTimer.cancel();
+			dumpTimer = null;
+		}
+		if (intervalMillis <= 0)
+			return;
+
+		final File file = new File(XposedBridge.BASE_DIR + "log/metrics_" + Process.myPid() + ".log");
+		dumpTimer = new Timer("XposedMetricsDump", true);
+		dumpTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					FileWriter writer = new FileWriter(file, false);
+					try {
+						dump(writer);
+					} finally {
+						writer.close();
+					}
+					file.setReadable(true, false);
+				} catch (IOException e) {
+					XposedBridge.log(e);
+				}
+			}
+		}, intervalMillis, intervalMillis);
+	}
+}
@@ -15,9 +15,26 @@ public interface IXposedHookLoadPackage extends IXposedMod {
 		public Wrapper(IXposedHookLoadPackage instance) {
 			this.instance = instance;
 		}
+		/** @see XC_LoadPackage#XC_LoadPackage(int, String[]) */
+		public Wrapper(IXposedHookLoadPackage instance, String[] scope) {
+			super(PRIORITY_DEFAULT, scope);
+			this.instance = instance;
+		}
 		@Override
 		public void handleLoadPackage(LoadPackageParam lpparam) throws Throwable {
 			instance.handleLoadPackage(lpparam);
 		}
+		@Override
+		public boolean isIndependent() {
+			return instance instanceof IXposedHookLoadPackagePrepare;
+		}
+		@Override
+		public Object prepareLoadPackage(LoadPackageParam lpparam) throws Throwable {
+			return ((IXposedHookLoadPackagePrepare) instance).prepareLoadPackage(lpparam);
+		}
+		@Override
+		public void commitLoadPackage(LoadPackageParam lpparam, Object prepared) throws Throwable {
+			((IXposedHookLoadPackagePrepare) instance).commitLoadPackage(lpparam, prepared);
+		}
 	}
 }
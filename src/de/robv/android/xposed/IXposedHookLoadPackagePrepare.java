@@ -0,0 +1,18 @@
+package de.robv.android.xposed;
+
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
+import de.robv.android.xposed.callbacks.XC_LoadPackage.LoadPackageParam;
+
+/**
+ * Splits {@link IXposedHookLoadPackage#handleLoadPackage} into two phases, so that the lookups
+ * of several modules can run in parallel if <code>BASE_DIR/conf/parallel_load_package</code> exists.
+ * Otherwise, only <code>handleLoadPackage()</code> is called, which should usually be implemented as
+ * <code>commitLoadPackage(lpparam, prepareLoadPackage(lpparam))</code>.
+ */
+public interface IXposedHookLoadPackagePrepare extends IXposedHookLoadPackage {
+	/** @see XC_LoadPackage#prepareLoadPackage */
+	public abstract Object prepareLoadPackage(LoadPackageParam lpparam) throws Throwable;
+	
+	/** @see XC_LoadPackage#commitLoadPackage */
+	public abstract void commitLoadPackage(LoadPackageParam lpparam, Object prepared) throws Throwable;
+}
@@ -0,0 +1,108 @@
+package de.robv.android.xposed;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An open-addressing hash map with primitive <code>int</code> keys, used for looking up
+ * hooked methods by their method id.
+ * <p>The map is made for being filled once (mostly during startup) and read very often afterwards.
+ * {@link #get} doesn't lock and is safe to call concurrently with modifications, which are
+ * serialized internally. Entries can't be removed.
+ */
+/* package */ final class IntHashMap<V> {
+	private static final int INITIAL_CAPACITY = 256;
+
+	private static final class Table {
+		final int[] keys;
+		// an entry is only visible to readers once its value has been set
+		final AtomicReferenceArray<Object> values;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new int[capacity];
+			values = new AtomicReferenceArray<Object>(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	private volatile Table table = new Table(INITIAL_CAPACITY);
+	private int size = 0;
+
+	/** Spread the bits of the key, method ids are pointers and thus aligned. */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** Returns the value for the given key or <code>null</code> if there is none. */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Table t = table;
+		int i = hash(key) & t.mask;
+		while (true) {
+			Object value = t.values.get(i);
+			if (value == null)
+				return null;
+			if (t.keys[i] == key)
+				return (V) value;
+			i = (i + 1) & t.mask;
+		}
+	}
+
+	/**
+	 * Stores a value for the given key, replacing the previous value.
+	 * @return the previous value or <code>null</code> if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V put(int key, V value) {
+		if (value == null)
+			throw new NullPointerException("value must not be null");
+
+		Table t = table;
+		int i = hash(key) & t.mask;
+		while (true) {
+			Object existing = t.values.get(i);
+			if (existing == null)
+				break;
+			if (t.keys[i] == key) {
+				t.values.set(i, value);
+				return (V) existing;
+			}
+			i = (i + 1) & t.mask;
+		}
+
+		// keep the load factor below 50% so that lookups rarely have to probe more than one slot
+		if ((size + 1) * 2 > t.keys.length) {
+			t = resize(t);
+			i = hash(key) & t.mask;
+			while (t.values.get(i) != null)
+				i = (i + 1) & t.mask;
+		}
+
+		t.keys[i] = key;
+		t.values.set(i, value);
+		size++;
+		return null;
+	}
+
+	/** Copies all entries into a table with twice the capacity and publishes it. */
+	private Table resize(Table old) {
+		Table t = new Table(old.keys.length * 2);
+		for (int j = 0; j < old.keys.length; j++) {
+			Object value = old.values.get(j);
+			if (value == null)
+				continue;
+			int i = hash(old.keys[j]) & t.mask;
+			while (t.values.get(i) != null)
+				i = (i + 1) & t.mask;
+			t.keys[i] = old.keys[j];
+			t.values.set(i, value);
+		}
+		table = t;
+		return t;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
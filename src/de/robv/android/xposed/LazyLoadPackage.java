@@ -0,0 +1,92 @@
+package de.robv.android.xposed;
+
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
+
+/**
+ * Stands in for a module class which only implements {@link IXposedHookLoadPackage} and has a
+ * scope. The class is loaded in Zygote as usual, but only instantiated when the callback is
+ * called for the first time, i.e. only in processes which the module targets.
+ */
+/* package */ final class LazyLoadPackage extends XC_LoadPackage {
+	private static int activationCount = 0;
+	private static long activationNanos = 0;
+
+	private final Class<?> moduleClass;
+	private IXposedHookLoadPackage instance = null;
+	private boolean failed = false;
+
+	public LazyLoadPackage(Class<?> moduleClass, String[] scope) {
+		super(PRIORITY_DEFAULT, scope);
+		this.moduleClass = moduleClass;
+	}
+
+	/**
+	 * Returns whether a module class can be activated lazily, i.e. whether there is nothing to do
+	 * for it in Zygote.
+	 */
+	public static boolean isSupported(Class<?> moduleClass) {
+		int kinds = ModuleCache.getKinds(moduleClass);
+		return (kinds & ModuleCache.KIND_LOAD_PACKAGE) != 0
+			&& (kinds & (ModuleCache.KIND_ZYGOTE_INIT | ModuleCache.KIND_INIT_PACKAGE_RESOURCES)) == 0;
+	}
+
+	@Override
+	public void handleLoadPackage(LoadPackageParam lpparam) throws Throwable {
+		IXposedHookLoadPackage instance = activate();
+		if (instance != null)
+			instance.handleLoadPackage(lpparam);
+	}
+
+	@Override
+	public boolean isIndependent() {
+		return IXposedHookLoadPackagePrepare.class.isAssignableFrom(moduleClass);
+	}
+
+	@Override
+	public Object prepareLoadPackage(LoadPackageParam lpparam) throws Throwable {
+		IXposedHookLoadPackage instance = activate();
+		return (instance != null) ? ((IXposedHookLoadPackagePrepare) instance).prepareLoadPackage(lpparam) : null;
+	}
+
+	@Override
+	public void commitLoadPackage(LoadPackageParam lpparam, Object prepared) throws Throwable {
+		IXposedHookLoadPackage instance = activate();
+		if (instance != null)
+			((IXposedHookLoadPackagePrepare) instance).commitLoadPackage(lpparam, prepared);
+	}
+
+	private synchronized IXposedHookLoadPackage activate() {
+		if (instance == null && !failed) {
+			long start = System.nanoTime();
+			try {
+				instance = (IXposedHookLoadPackage) moduleClass.newInstance();
+			} catch (Throwable t) {
+				// don't try again for every package
+				failed = true;
+				XposedBridge.log(t);
+			}
+			recordActivation(System.nanoTime() - start);
+		}
+		return instance;
+	}
+
+	private static synchronized void recordActivation(long nanos) {
+		activationCount++;
+		activationNanos += nanos;
+	}
+
+	/** Returns how many module classes have been activated in this process so far. */
+	public static synchronized int getActivationCount() {
+		return activationCount;
+	}
+
+	/** Returns the time spent on activating module classes in this process so far. */
+	public static synchronized long getActivationNanos() {
+		return activationNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "LazyLoadPackage[" + moduleClass.getName() + "]";
+	}
+}
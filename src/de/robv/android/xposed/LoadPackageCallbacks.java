@@ -0,0 +1,96 @@
+package de.robv.android.xposed;
+
+import java.util.HashMap;
+
+import de.robv.android.xposed.callbacks.CallbackSnapshot;
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
+
+/**
+ * The registered {@link XC_LoadPackage} callbacks, indexed by the package and process names they
+ * are interested in (see {@link XC_LoadPackage#getScope}). Callbacks without a scope are called
+ * for all packages.
+ *
+ * <p>The callbacks are kept in {@link CallbackSnapshot}s, so this can be read without locking.
+ * Registering or unregistering a callback replaces the affected snapshots, which only happens
+ * while modules are loaded.
+ */
+/* package */ final class LoadPackageCallbacks {
+	private volatile CallbackSnapshot<XC_LoadPackage> unscoped = CallbackSnapshot.empty();
+	private volatile CallbackSnapshot<XC_LoadPackage> scoped = CallbackSnapshot.empty();
+	private volatile HashMap<String, CallbackSnapshot<XC_LoadPackage>> byName
+		= new HashMap<String, CallbackSnapshot<XC_LoadPackage>>();
+
+	public synchronized void add(XC_LoadPackage callback) {
+		String[] scope = callback.getScope();
+		if (scope == null) {
+			unscoped = unscoped.with(callback);
+			return;
+		}
+
+		CallbackSnapshot<XC_LoadPackage> newScoped = scoped.with(callback);
+		if (newScoped == scoped)
+			return;
+		HashMap<String, CallbackSnapshot<XC_LoadPackage>> newByName
+			= new HashMap<String, CallbackSnapshot<XC_LoadPackage>>(byName);
+		for (String name : scope) {
+			CallbackSnapshot<XC_LoadPackage> callbacks = newByName.get(name);
+			if (callbacks == null)
+				callbacks = CallbackSnapshot.empty();
+			newByName.put(name, callbacks.with(callback));
+		}
+		byName = newByName;
+		scoped = newScoped;
+	}
+
+	public synchronized void remove(XC_LoadPackage callback) {
+		String[] scope = callback.getScope();
+		if (scope == null) {
+			unscoped = unscoped.without(callback);
+			return;
+		}
+
+		CallbackSnapshot<XC_LoadPackage> newScoped = scoped.without(callback);
+		if (newScoped == scoped)
+			return;
+		HashMap<String, CallbackSnapshot<XC_LoadPackage>> newByName
+			= new HashMap<String, CallbackSnapshot<XC_LoadPackage>>(byName);
+		for (String name : scope) {
+			CallbackSnapshot<XC_LoadPackage> callbacks = newByName.get(name);
+			if (callbacks == null)
+				continue;
+			callbacks = callbacks.without(callback);
+			if (callbacks.isEmpty())
+				newByName.remove(name);
+			else
+				newByName.put(name, callbacks);
+		}
+		byName = newByName;
+		scoped = newScoped;
+	}
+
+	/** Returns the number of registered callbacks, with and without a scope. */
+	public int size() {
+		return unscoped.size() + scoped.size();
+	}
+
+	/** Returns the callbacks which should be called for a package, sorted by priority. */
+	public CallbackSnapshot<XC_LoadPackage> getSnapshot(String packageName, String processName) {
+		CallbackSnapshot<XC_LoadPackage> callbacks = unscoped;
+		HashMap<String, CallbackSnapshot<XC_LoadPackage>> byName = this.byName;
+		if (byName.isEmpty())
+			return callbacks;
+
+		// a callback can be scoped to both the package and the process name, but it's only added once
+		if (packageName != null)
+			callbacks = withScoped(callbacks, byName, packageName);
+		if (processName != null && !processName.equals(packageName))
+			callbacks = withScoped(callbacks, byName, processName);
+		return callbacks;
+	}
+
+	private static CallbackSnapshot<XC_LoadPackage> withScoped(CallbackSnapshot<XC_LoadPackage> callbacks,
+			HashMap<String, CallbackSnapshot<XC_LoadPackage>> byName, String name) {
+		CallbackSnapshot<XC_LoadPackage> forName = byName.get(name);
+		return (forName != null) ? callbacks.withAll(forName) : callbacks;
+	}
+}
@@ -0,0 +1,125 @@
+package de.robv.android.xposed;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
+import de.robv.android.xposed.callbacks.XC_LoadPackage.LoadPackageParam;
+
+/**
+ * Calls the load-package callbacks. If parallel mode is enabled, the prepare phase of
+ * {@link XC_LoadPackage#isIndependent independent} callbacks runs on a small thread pool first,
+ * while all commits (and the other callbacks) run on the calling thread in the order of their
+ * priorities, like in {@link XC_LoadPackage#callAll}.
+ *
+ * <p>The thread pool is only created when it is needed for the first time, which must be after
+ * the process has been forked from Zygote. Its threads terminate when they have been idle for a while.
+ */
+/* package */ final class LoadPackageDispatcher {
+	private static final int MAX_THREADS = 4;
+	private static final long KEEP_ALIVE_SECONDS = 10;
+
+	private static volatile boolean parallel = false;
+	private static ThreadPoolExecutor executor = null;
+
+	private LoadPackageDispatcher() {}
+
+	/** Enables or disables parallel mode. */
+	public static void setParallel(boolean enabled) {
+		parallel = enabled;
+	}
+
+	public static void callAll(final LoadPackageParam lpparam) {
+		Object[] callbacks = lpparam.callbacks.toArray();
+		ThreadPoolExecutor executor = (parallel && countIndependent(callbacks) >= 2) ? getExecutor() : null;
+		if (executor == null) {
+			XC_LoadPackage.callAll(lpparam);
+			return;
+		}
+
+		Future<?>[] prepared = new Future<?>[callbacks.length];
+		for (int i = 0; i < callbacks.length; i++) {
+			final XC_LoadPackage callback = (XC_LoadPackage) callbacks[i];
+			if (!callback.isIndependent())
+				continue;
+			prepared[i] = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					try {
+						return callback.prepareLoadPackage(lpparam);
+					} catch (Exception e) {
+						throw e;
+					} catch (Error e) {
+						throw e;
+					} catch (Throwable t) {
+						throw new ExecutionException(t);
+					}
+				}
+			});
+		}
+
+		for (int i = 0; i < callbacks.length; i++) {
+			XC_LoadPackage callback = (XC_LoadPackage) callbacks[i];
+			try {
+				if (prepared[i] != null)
+					callback.commitLoadPackage(lpparam, getResult(prepared[i]));
+				else
+					callback.handleLoadPackage(lpparam);
+			} catch (Throwable t) {
+				XposedBridge.log(t);
+			}
+		}
+	}
+
+	/** Waits for the prepare phase and rethrows the exception it threw, if any. */
+	private static Object getResult(Future<?> future) throws Throwable {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// other throwables are wrapped once more in the task
+			if (cause instanceof ExecutionException && cause.getCause() != null)
+				cause = cause.getCause();
+			throw cause;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	private static int countIndependent(Object[] callbacks) {
+		int count = 0;
+		for (Object callback : callbacks) {
+			if (((XC_LoadPackage) callback).isIndependent())
+				count++;
+		}
+		return count;
+	}
+
+	/** Returns the thread pool, or <code>null</code> if there is only one CPU core anyway. */
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+			if (threads < 2)
+				return null;
+			executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "XposedLoadPackage-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+}
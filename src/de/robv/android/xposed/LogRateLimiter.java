@@ -0,0 +1,100 @@
+package de.robv.android.xposed;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how often similar stack traces are logged. Stack traces are similar if they come from the
+ * same call site (message id and module) and are identical. At most {@link #MAX_PER_WINDOW} of them
+ * are logged within {@link #WINDOW_MILLIS}, the others are only counted and later reported with a
+ * single "suppressed" message. Plain text messages aren't limited.
+ */
+/* package */ final class LogRateLimiter {
+	private static final long WINDOW_MILLIS = 10 * 1000;
+	private static final int MAX_PER_WINDOW = 5;
+	/** Windows without suppressed messages are forgotten after this time */
+	private static final long EXPIRE_MILLIS = 60 * 1000;
+	/** Maximum number of call sites which are tracked, messages from further call sites aren't limited */
+	private static final int MAX_WINDOWS = 512;
+
+	private static final class Window {
+		volatile long start;
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicInteger suppressed = new AtomicInteger();
+		// details of the first message, used for the summary
+		final int level;
+		final String module;
+		final String text;
+
+		Window(long start, int level, String module, String text) {
+			this.start = start;
+			this.level = level;
+			this.module = module;
+			this.text = text;
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<Long, Window>();
+
+	/**
+	 * Returns whether a message should be logged. If not, it's counted as suppressed.
+	 * This is called before the message is formatted, so it must be cheap.
+	 *
+	 * @param text the message, or a short description of the throwable
+	 * @param stackHash the hash of the stack trace, see {@link LogRecord#hashStackTrace}, or 0
+	 */
+	public boolean allow(long now, int level, String module, int messageId, String text, long stackHash) {
+		long h = messageId;
+		h = 31 * h + ((module != null) ? module.hashCode() : 0);
+		if (stackHash != 0)
+			h = 31 * h + stackHash;
+		else if (text != null)
+			h = 31 * h + text.hashCode();
+		Long key = h;
+
+		Window window = windows.get(key);
+		if (window == null) {
+			if (windows.size() >= MAX_WINDOWS)
+				return true;
+			window = new Window(now, level, module, text);
+			Window existing = windows.putIfAbsent(key, window);
+			if (existing != null)
+				window = existing;
+		}
+
+		if (now - window.start >= WINDOW_MILLIS) {
+			synchronized (window) {
+				if (now - window.start >= WINDOW_MILLIS) {
+					window.count.set(0);
+					window.start = now;
+				}
+			}
+		}
+
+		if (window.count.incrementAndGet() <= MAX_PER_WINDOW)
+			return true;
+
+		window.suppressed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Adds a summary for each call site where messages have been suppressed since the last call,
+	 * and forgets about call sites which haven't been used for a while.
+	 */
+	public void collectSummaries(List<LogRecord> out, long now) {
+		Iterator<Window> it = windows.values().iterator();
+		while (it.hasNext()) {
+			Window window = it.next();
+			int suppressed = window.suppressed.getAndSet(0);
+			if (suppressed > 0) {
+				out.add(new LogRecord(now, window.level, LogRecord.DEFAULT_TAG, window.module, LogRecord.MSG_SUPPRESSED,
+						"Suppressed " + suppressed + " similar messages: " + window.text, 0, null));
+			} else if (now - window.start >= EXPIRE_MILLIS) {
+				it.remove();
+			}
+		}
+	}
+}
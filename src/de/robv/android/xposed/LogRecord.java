@@ -0,0 +1,224 @@
+package de.robv.android.xposed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * One message of the Xposed log, see {@link LogStore} for how they are stored.
+ *
+ * <p>Records are stored in a compact binary format. Stack traces are only written once per
+ * file, later records with the same stack trace only refer to its hash.
+ * <pre>
+ * int     magic ("XLOG"), only at the start of a file
+ * for each entry:
+ *   byte    TYPE_STACK_TRACE
+ *   long    stack hash
+ *   string  stack trace
+ * or:
+ *   byte    TYPE_RECORD
+ *   long    timestamp (milliseconds since the epoch)
+ *   int     pid
+ *   byte    level
+ *   string  tag
+ *   string  module
+ *   int     message id
+ *   string  message
+ *   long    stack hash, 0 if there is no stack trace
+ * </pre>
+ * Strings are written as length (int, -1 for <code>null</code>) followed by the UTF-8 bytes.
+ */
+/* package */ final class LogRecord {
+	/* package */ static final int MAGIC = 0x584c4f47; // "XLOG"
+	private static final int TYPE_STACK_TRACE = 1;
+	private static final int TYPE_RECORD = 2;
+
+	// same values as the priorities in android.util.Log
+	public static final int LEVEL_DEBUG = 3;
+	public static final int LEVEL_INFO = 4;
+	public static final int LEVEL_WARN = 5;
+	public static final int LEVEL_ERROR = 6;
+	private static final String LEVEL_CHARS = "??VDIWEA";
+
+	/** A message passed to {@link XposedBridge#log}. */
+	public static final int MSG_TEXT = 0;
+	/** A "before" callback of a hooked method threw an exception. */
+	public static final int MSG_BEFORE_HOOK_FAILED = 1;
+	/** An "after" callback of a hooked method threw an exception. */
+	public static final int MSG_AFTER_HOOK_FAILED = 2;
+	/** Messages have been dropped because the buffer was full. */
+	public static final int MSG_DROPPED = 3;
+	/** Similar messages have been suppressed by the rate limit. */
+	public static final int MSG_SUPPRESSED = 4;
+
+	public static final String DEFAULT_TAG = "Xposed";
+
+	public final long timestamp;
+	public final int level;
+	public final String tag;
+	/** The module (or callback class) which caused the message, or <code>null</code> */
+	public final String module;
+	public final int messageId;
+	public final String message;
+	/** Hash of the stack trace, 0 if there is none. Identical stack traces have the same hash. */
+	public final long stackHash;
+	public final String stackTrace;
+	/** Only used for decoded records */
+	/* package */ int pid;
+
+	public LogRecord(long timestamp, int level, String tag, String module, int messageId,
+			String message, long stackHash, String stackTrace) {
+		this.timestamp = timestamp;
+		this.level = level;
+		this.tag = tag;
+		this.module = module;
+		this.messageId = messageId;
+		this.message = message;
+		this.stackHash = stackHash;
+		this.stackTrace = stackTrace;
+	}
+
+	/**
+	 * Calculates a hash of the stack trace of the given throwable and its causes.
+	 * This doesn't include the messages, so exceptions thrown at the same place get the same hash.
+	 */
+	public static long hashStackTrace(Throwable t) {
+		long h = 1125899906842597L;
+		for (int depth = 0; t != null && depth < 10; depth++, t = t.getCause()) {
+			h = 31 * h + t.getClass().getName().hashCode();
+			for (StackTraceElement element : t.getStackTrace())
+				h = 31 * h + element.hashCode();
+		}
+		// 0 means "no stack trace"
+		return (h != 0) ? h : 1;
+	}
+
+	/** Returns an approximation of the size of this record, in bytes. */
+	public int estimateSize() {
+		int size = 32;
+		if (message != null)
+			size += message.length();
+		if (stackTrace != null)
+			size += stackTrace.length();
+		return size;
+	}
+
+	//#################################################################################################
+	/**
+	 * Writes the record to the stream. The stack trace is only written if its hash isn't included in
+	 * <code>writtenStacks</code> yet, it is added afterwards.
+	 */
+	public void encode(DataOutputStream out, int pid, Set<Long> writtenStacks) throws IOException {
+		if (stackHash != 0 && writtenStacks.add(stackHash)) {
+			out.writeByte(TYPE_STACK_TRACE);
+			out.writeLong(stackHash);
+			writeString(out, stackTrace);
+		}
+
+		out.writeByte(TYPE_RECORD);
+		out.writeLong(timestamp);
+		out.writeInt(pid);
+		out.writeByte(level);
+		writeString(out, tag);
+		writeString(out, module);
+		out.writeInt(messageId);
+		writeString(out, message);
+		out.writeLong(stackHash);
+	}
+
+	/**
+	 * Reads the next record from the stream. Stack traces which are found on the way are stored in
+	 * <code>stackTraces</code>.
+	 * @return the record or <code>null</code> at the end of the stream (or if the last record is incomplete)
+	 */
+	public static LogRecord decode(DataInputStream in, Map<Long, String> stackTraces) throws IOException {
+		try {
+			while (true) {
+				int type = in.read();
+				if (type == -1)
+					return null;
+
+				if (type == TYPE_STACK_TRACE) {
+					long hash = in.readLong();
+					stackTraces.put(hash, readString(in));
+				} else if (type == TYPE_RECORD) {
+					long timestamp = in.readLong();
+					int pid = in.readInt();
+					int level = in.readByte();
+					String tag = readString(in);
+					String module = readString(in);
+					int messageId = in.readInt();
+					String message = readString(in);
+					long stackHash = in.readLong();
+					LogRecord record = new LogRecord(timestamp, level, tag, module, messageId,
+							message, stackHash, (stackHash != 0) ? stackTraces.get(stackHash) : null);
+					record.pid = pid;
+					return record;
+				} else {
+					throw new IOException("invalid log entry type " + type);
+				}
+			}
+		} catch (EOFException e) {
+			// the process was probably killed while writing
+			return null;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	//#################################################################################################
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return format;
+		}
+	};
+
+	/**
+	 * Formats a decoded record as text:
+	 * <code>&lt;UTC time&gt; &lt;pid&gt; &lt;level&gt; &lt;tag&gt; [&lt;module&gt;]: &lt;message&gt;</code>,
+	 * followed by the stack trace.
+	 */
+	public void format(StringBuilder sb) {
+		sb.append(dateFormat.get().format(new Date(timestamp)))
+			.append(' ').append(pid)
+			.append(' ').append((level >= 0 && level < LEVEL_CHARS.length()) ? LEVEL_CHARS.charAt(level) : '?')
+			.append(' ').append(tag);
+		if (module != null)
+			sb.append(" [").append(module).append(']');
+		sb.append(": ");
+		if (message != null)
+			sb.append(message);
+		if (stackHash != 0) {
+			if (message != null)
+				sb.append('\n');
+			sb.append(stackTrace != null ? stackTrace : "<stack trace " + Long.toHexString(stackHash) + " not found>");
+		}
+	}
+}
@@ -0,0 +1,361 @@
+package de.robv.android.xposed;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import android.os.Process;
+
+/**
+ * Stores the Xposed log in one file per process, so that processes don't interleave their
+ * messages. Each file is rotated when it gets too large, keeping a few older generations.
+ * Whenever a process starts a new file, the oldest files are deleted to keep the total size
+ * of all log files below a limit.
+ *
+ * <p>Files are named <code>debug_&lt;pid&gt;.bin</code>, older generations get a suffix
+ * (<code>.1</code> being the most recent one). They contain {@link LogRecord}s in binary format,
+ * use {@link #decode} or {@link #readMerged} to convert them to text.
+ *
+ * <p>For existing readers like the installer, all processes also append the records as text to
+ * <code>debug.log</code>, which is renamed to <code>debug.log.old</code> when it gets too large.
+ * The processes coordinate this with a lock on <code>debug.log.lock</code>.
+ */
+public final class LogStore {
+	/** Maximum size of a single log file before it is rotated */
+	private static final long MAX_SEGMENT_SIZE = 64 * 1024;
+	/** Number of old generations which are kept for each process */
+	private static final int MAX_GENERATIONS = 2;
+	/** Maximum size of all log files together */
+	private static final long MAX_TOTAL_SIZE = 2 * 1024 * 1024;
+	/** Maximum size of debug.log before it is renamed to debug.log.old */
+	private static final long MAX_TEXT_SIZE = 128 * 1024;
+
+	private static final int HEADER_SIZE = 4;
+	private static final Pattern SEGMENT_NAME = Pattern.compile("debug_\\d+\\.bin(?:\\.\\d+)?");
+
+	private final File dir;
+	private int pid = 0;
+	private File file = null;
+	private OutputStream out = null;
+	private long size = 0;
+	// stack traces which have already been written to the current file
+	private final Set<Long> writtenStacks = new HashSet<Long>();
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 * 1024);
+	private final DataOutputStream data = new DataOutputStream(buffer);
+	private final StringBuilder text = new StringBuilder();
+	private int textPid = 0;
+	private FileChannel textLock = null;
+	private FileOutputStream textOut = null;
+
+	/* package */ LogStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Opens the file for the given process. If it's a new file, the header is written and
+	 * old files are deleted if necessary.
+	 */
+	private void open(int myPid) throws IOException {
+		pid = myPid;
+		file = new File(dir, "debug_" + myPid + ".bin");
+		out = new FileOutputStream(file, true);
+		size = file.length();
+		file.setReadable(true, false);
+		writtenStacks.clear();
+		if (size == 0) {
+			new DataOutputStream(out).writeInt(LogRecord.MAGIC);
+			size = HEADER_SIZE;
+			// most processes never rotate their file, so this is the only chance to enforce the limit
+			prune(dir, file);
+		}
+	}
+
+	private void close() {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} catch (IOException ignored) {}
+		out = null;
+	}
+
+	private void rotate(int pid) {
+		String base = "debug_" + pid + ".bin";
+		new File(dir, base + "." + MAX_GENERATIONS).delete();
+		for (int i = MAX_GENERATIONS - 1; i >= 1; i--)
+			new File(dir, base + "." + i).renameTo(new File(dir, base + "." + (i + 1)));
+		new File(dir, base).renameTo(new File(dir, base + ".1"));
+	}
+
+	/**
+	 * Writes the records with a single write call, unless the file has to be rotated in between.
+	 */
+	/* package */ synchronized void write(List<LogRecord> records) throws IOException {
+		// processes forked from Zygote inherit its file, so the process id is checked every time
+		int myPid = Process.myPid();
+		try {
+			writeText(records, myPid);
+		} catch (IOException ignored) {
+			// the text log is only a copy, this mustn't keep the records from the binary log
+			closeText();
+		}
+
+		if (out == null || pid != myPid) {
+			close();
+			open(myPid);
+		}
+
+		try {
+			buffer.reset();
+			for (LogRecord record : records) {
+				int start = buffer.size();
+				record.encode(data, myPid, writtenStacks);
+				if (size + buffer.size() > MAX_SEGMENT_SIZE && size + start > HEADER_SIZE) {
+					// finish the current file with the previous records, then encode this record again
+					// for the new file, which doesn't contain the stack trace yet
+					out.write(buffer.toByteArray(), 0, start);
+					buffer.reset();
+					close();
+					rotate(myPid);
+					open(myPid);
+					record.encode(data, myPid, writtenStacks);
+				}
+			}
+			buffer.writeTo(out);
+			size += buffer.size();
+			out.flush();
+		} catch (IOException e) {
+			// the stack traces encoded above might not have made it into the file, so reopen it
+			// next time, which starts with an empty set of written stack traces
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends the records to debug.log. This and the rotation of the file happen while holding
+	 * the lock which all processes use for it, so they neither interleave nor lose each other's records.
+	 */
+	private void writeText(List<LogRecord> records, int myPid) throws IOException {
+		text.setLength(0);
+		for (LogRecord record : records) {
+			record.format(text);
+			text.append('\n');
+		}
+		byte[] bytes = text.toString().getBytes("UTF-8");
+
+		if (textLock == null || textPid != myPid) {
+			closeText();
+			File lockFile = new File(dir, "debug.log.lock");
+			boolean created = !lockFile.exists();
+			textLock = new RandomAccessFile(lockFile, "rw").getChannel();
+			textPid = myPid;
+			if (created)
+				makeShared(lockFile);
+		}
+
+		File textFile = new File(dir, "debug.log");
+		FileLock lock = textLock.lock();
+		try {
+			// if another process has rotated the file, the stream still points to debug.log.old
+			if (textOut == null || !textFile.exists() || textOut.getChannel().size() != textFile.length())
+				openText(textFile);
+			if (textFile.length() > MAX_TEXT_SIZE) {
+				textFile.renameTo(new File(dir, "debug.log.old"));
+				openText(textFile);
+			}
+			textOut.write(bytes);
+		} finally {
+			lock.release();
+		}
+	}
+
+	private void openText(File textFile) throws IOException {
+		if (textOut != null) {
+			textOut.close();
+			textOut = null;
+		}
+		boolean created = !textFile.exists();
+		textOut = new FileOutputStream(textFile, true);
+		if (created)
+			makeShared(textFile);
+	}
+
+	private void closeText() {
+		if (textOut != null) {
+			try {
+				textOut.close();
+			} catch (IOException ignored) {}
+			textOut = null;
+		}
+		if (textLock != null) {
+			try {
+				textLock.close();
+			} catch (IOException ignored) {}
+			textLock = null;
+		}
+	}
+
+	/** Processes of other apps have to write to this file as well. */
+	private static void makeShared(File file) {
+		file.setReadable(true, false);
+		file.setWritable(true, false);
+	}
+
+	//#################################################################################################
+	/**
+	 * Deletes the oldest log files until their total size is below the limit.
+	 * @param keep a file which must not be deleted (the one currently written to), or <code>null</code>
+	 */
+	/* package */ static void prune(File dir, File keep) {
+		File[] files = listSegments(dir);
+		long total = 0;
+		for (File file : files)
+			total += file.length();
+		if (total <= MAX_TOTAL_SIZE)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return (l < r) ? -1 : ((l == r) ? 0 : 1);
+			}
+		});
+		for (File file : files) {
+			if (total <= MAX_TOTAL_SIZE)
+				break;
+			if (file.equals(keep))
+				continue;
+			long length = file.length();
+			if (file.delete())
+				total -= length;
+		}
+	}
+
+	private static File[] listSegments(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return new File[0];
+		List<File> segments = new ArrayList<File>(files.length);
+		for (File file : files)
+			if (SEGMENT_NAME.matcher(file.getName()).matches())
+				segments.add(file);
+		return segments.toArray(new File[segments.size()]);
+	}
+
+	//#################################################################################################
+	/** Reads the records of one log file. */
+	private static final class SegmentReader {
+		private final DataInputStream in;
+		private final Map<Long, String> stackTraces = new HashMap<Long, String>();
+		public LogRecord current;
+
+		public SegmentReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != LogRecord.MAGIC) {
+				in.close();
+				throw new IOException(file + " is not an Xposed log file");
+			}
+		}
+
+		/** Reads the next record, returns <code>false</code> at the end of the file. */
+		public boolean next() throws IOException {
+			current = LogRecord.decode(in, stackTraces);
+			return current != null;
+		}
+
+		public void close() {
+			try {
+				in.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	/**
+	 * Converts one log file to text, see {@link LogRecord#format} for the format.
+	 */
+	public static void decode(File file, Writer out) throws IOException {
+		SegmentReader reader = new SegmentReader(file);
+		try {
+			StringBuilder sb = new StringBuilder();
+			while (reader.next()) {
+				sb.setLength(0);
+				reader.current.format(sb);
+				sb.append('\n');
+				out.write(sb.toString());
+			}
+			out.flush();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Merges all log files in the given directory into one log, ordered by time.
+	 * Files which can't be read are skipped.
+	 */
+	public static void readMerged(File dir, Writer out) throws IOException {
+		PriorityQueue<SegmentReader> queue = new PriorityQueue<SegmentReader>(11, new Comparator<SegmentReader>() {
+			@Override
+			public int compare(SegmentReader lhs, SegmentReader rhs) {
+				long l = lhs.current.timestamp;
+				long r = rhs.current.timestamp;
+				return (l < r) ? -1 : ((l == r) ? 0 : 1);
+			}
+		});
+
+		try {
+			for (File file : listSegments(dir)) {
+				SegmentReader reader;
+				try {
+					reader = new SegmentReader(file);
+				} catch (IOException e) {
+					continue;
+				}
+				if (reader.next())
+					queue.add(reader);
+				else
+					reader.close();
+			}
+
+			StringBuilder sb = new StringBuilder();
+			SegmentReader reader;
+			while ((reader = queue.poll()) != null) {
+				sb.setLength(0);
+				reader.current.format(sb);
+				sb.append('\n');
+				out.write(sb.toString());
+				if (reader.next())
+					queue.add(reader);
+				else
+					reader.close();
+			}
+			out.flush();
+		} finally {
+			for (SegmentReader reader : queue)
+				reader.close();
+		}
+	}
+}
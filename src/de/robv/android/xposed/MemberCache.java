@@ -0,0 +1,65 @@
+package de.robv.android.xposed;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe cache for reflection lookups in {@link XposedHelpers}. Reads don't lock, and lookups
+ * which failed are cached as well (as {@link #NOT_FOUND}).
+ * <p>The number of entries is limited. If there are too many, a part of them is evicted, so they
+ * will be looked up again when they are needed.
+ */
+/* package */ final class MemberCache<K, V> {
+	/** Marker for lookups which didn't find anything */
+	public static final Object NOT_FOUND = new Object();
+
+	private final ConcurrentHashMap<K, Object> map;
+	private final AtomicInteger size = new AtomicInteger();
+	private final int maxSize;
+
+	public MemberCache(int maxSize) {
+		this.map = new ConcurrentHashMap<K, Object>(64, 0.75f, 4);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the cached member, {@link #NOT_FOUND} if it is known that there is no such member,
+	 * or <code>null</code> if the key isn't cached.
+	 */
+	public Object get(K key) {
+		return map.get(key);
+	}
+
+	/** Caches the result of a successful lookup. */
+	public void put(K key, V value) {
+		putInternal(key, value);
+	}
+
+	/** Caches that a lookup failed. */
+	public void putNotFound(K key) {
+		putInternal(key, NOT_FOUND);
+	}
+
+	private void putInternal(K key, Object value) {
+		if (map.put(key, value) == null && size.incrementAndGet() > maxSize)
+			evict();
+	}
+
+	/** Removes about a quarter of the entries, which is rare enough to not matter for performance. */
+	private void evict() {
+		int toRemove = maxSize / 4;
+		Iterator<K> it = map.keySet().iterator();
+		while (toRemove > 0 && it.hasNext()) {
+			// another thread might have evicted the same key already
+			if (map.remove(it.next()) != null)
+				size.decrementAndGet();
+			toRemove--;
+		}
+	}
+
+	/** Returns the number of cached entries (including failed lookups). */
+	/* package */ int size() {
+		return size.get();
+	}
+}
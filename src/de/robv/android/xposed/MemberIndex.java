@@ -0,0 +1,202 @@
+package de.robv.android.xposed;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import external.org.apache.commons.lang3.ClassUtils;
+import external.org.apache.commons.lang3.reflect.MemberUtils;
+
+/**
+ * The members of a class, indexed by name, for the lookups in {@link XposedHelpers} which
+ * aren't cached yet. This avoids copying all methods of a class for every lookup and using
+ * exceptions to find out that a member doesn't exist.
+ *
+ * <p>Methods and fields are only indexed when they are needed for the first time.
+ * The index for a class is only held softly. As the indexed members refer to their class,
+ * a class can't be unloaded before its index has been cleared.
+ */
+/* package */ final class MemberIndex {
+	private static final WeakHashMap<Class<?>, SoftReference<MemberIndex>> indexes = new WeakHashMap<Class<?>, SoftReference<MemberIndex>>();
+
+	/** Methods or constructors with their parameter types, the declared ones first. */
+	private static final class Candidates {
+		final Member[] members;
+		final Class<?>[][] parameterTypes;
+		/** Number of members which are declared in the class itself */
+		final int declaredCount;
+
+		Candidates(List<Member> members, int declaredCount) {
+			this.members = members.toArray(new Member[members.size()]);
+			this.parameterTypes = new Class<?>[this.members.length][];
+			for (int i = 0; i < this.members.length; i++) {
+				Member member = this.members[i];
+				parameterTypes[i] = (member instanceof Method)
+						? ((Method) member).getParameterTypes()
+						: ((Constructor<?>) member).getParameterTypes();
+			}
+			this.declaredCount = declaredCount;
+		}
+
+		/**
+		 * Returns the declared member with exactly these parameter types, or <code>null</code>.
+		 * Bridge methods (which only differ in the return type) are only returned if there is no other match.
+		 */
+		Member findExact(Class<?>[] types) {
+			if (types == null)
+				types = new Class<?>[0];
+			Member bridge = null;
+			for (int i = 0; i < declaredCount; i++) {
+				Class<?>[] candidateTypes = parameterTypes[i];
+				if (candidateTypes.length != types.length)
+					continue;
+				boolean match = true;
+				for (int j = 0; j < types.length; j++) {
+					if (candidateTypes[j] != types[j]) {
+						match = false;
+						break;
+					}
+				}
+				if (!match)
+					continue;
+				if (members[i] instanceof Method && ((Method) members[i]).isBridge())
+					bridge = members[i];
+				else
+					return members[i];
+			}
+			return bridge;
+		}
+
+		/**
+		 * Returns the member whose parameter types are the closest match, or <code>null</code>.
+		 * For methods, this includes public methods from superclasses and interfaces.
+		 */
+		Member findBestMatch(Class<?>[] types) {
+			int best = -1;
+			for (int i = 0; i < members.length; i++) {
+				if (!ClassUtils.isAssignable(types, parameterTypes[i], true))
+					continue;
+				if (best == -1 || MemberUtils.compareParameterTypes(parameterTypes[i], parameterTypes[best], types) < 0)
+					best = i;
+			}
+			return (best != -1) ? members[best] : null;
+		}
+	}
+
+	private Map<String, Field> fields = null;
+	private Map<String, Candidates> methods = null;
+	private Candidates constructors = null;
+
+	private MemberIndex() {}
+
+	/** Returns the index for the given class, creating it if necessary. */
+	private static MemberIndex get(Class<?> clazz) {
+		synchronized (indexes) {
+			SoftReference<MemberIndex> ref = indexes.get(clazz);
+			MemberIndex index = (ref != null) ? ref.get() : null;
+			if (index == null) {
+				index = new MemberIndex();
+				indexes.put(clazz, new SoftReference<MemberIndex>(index));
+			}
+			return index;
+		}
+	}
+
+	//#################################################################################################
+	/**
+	 * Returns the field with the given name, declared in the class or one of its superclasses
+	 * (the nearest one if there are several), or <code>null</code>.
+	 */
+	public static Field findField(Class<?> clazz, String name) {
+		return get(clazz).getFields(clazz).get(name);
+	}
+
+	private synchronized Map<String, Field> getFields(Class<?> clazz) {
+		if (fields == null) {
+			Map<String, Field> result = new HashMap<String, Field>();
+			Class<?> superclass = clazz.getSuperclass();
+			if (superclass != null && superclass != Object.class)
+				result.putAll(get(superclass).getFields(superclass));
+			// fields of this class hide fields with the same name in superclasses
+			for (Field field : clazz.getDeclaredFields())
+				result.put(field.getName(), field);
+			fields = result;
+		}
+		return fields;
+	}
+
+	/** Returns the method declared in this class with exactly these parameter types, or <code>null</code>. */
+	public static Method findMethodExact(Class<?> clazz, String name, Class<?>[] parameterTypes) {
+		Candidates candidates = get(clazz).getMethods(clazz).get(name);
+		return (candidates != null) ? (Method) candidates.findExact(parameterTypes) : null;
+	}
+
+	/**
+	 * Returns the declared or public method which matches the parameter types best,
+	 * or <code>null</code>. Declared methods are preferred if two methods match equally.
+	 */
+	public static Method findMethodBestMatch(Class<?> clazz, String name, Class<?>[] parameterTypes) {
+		Candidates candidates = get(clazz).getMethods(clazz).get(name);
+		return (candidates != null) ? (Method) candidates.findBestMatch(parameterTypes) : null;
+	}
+
+	private synchronized Map<String, Candidates> getMethods(Class<?> clazz) {
+		if (methods == null) {
+			Map<String, List<Member>> byName = new HashMap<String, List<Member>>();
+			Map<String, Integer> declaredCounts = new HashMap<String, Integer>();
+			for (Method method : clazz.getDeclaredMethods())
+				addToList(byName, method.getName(), method);
+			for (Map.Entry<String, List<Member>> entry : byName.entrySet())
+				declaredCounts.put(entry.getKey(), entry.getValue().size());
+			for (Method method : clazz.getMethods()) {
+				// public methods of the class itself have already been added
+				if (method.getDeclaringClass() != clazz)
+					addToList(byName, method.getName(), method);
+			}
+
+			Map<String, Candidates> result = new HashMap<String, Candidates>(byName.size());
+			for (Map.Entry<String, List<Member>> entry : byName.entrySet()) {
+				Integer declaredCount = declaredCounts.get(entry.getKey());
+				result.put(entry.getKey(), new Candidates(entry.getValue(), (declaredCount != null) ? declaredCount : 0));
+			}
+			methods = result;
+		}
+		return methods;
+	}
+
+	private static void addToList(Map<String, List<Member>> map, String name, Member member) {
+		List<Member> list = map.get(name);
+		if (list == null) {
+			list = new ArrayList<Member>(2);
+			map.put(name, list);
+		}
+		list.add(member);
+	}
+
+	/** Returns the constructor with exactly these parameter types, or <code>null</code>. */
+	public static Constructor<?> findConstructorExact(Class<?> clazz, Class<?>[] parameterTypes) {
+		return (Constructor<?>) get(clazz).getConstructors(clazz).findExact(parameterTypes);
+	}
+
+	/** Returns the constructor which matches the parameter types best, or <code>null</code>. */
+	public static Constructor<?> findConstructorBestMatch(Class<?> clazz, Class<?>[] parameterTypes) {
+		return (Constructor<?>) get(clazz).getConstructors(clazz).findBestMatch(parameterTypes);
+	}
+
+	private synchronized Candidates getConstructors(Class<?> clazz) {
+		if (constructors == null) {
+			List<Member> list = new ArrayList<Member>();
+			for (Constructor<?> constructor : clazz.getDeclaredConstructors())
+				list.add(constructor);
+			constructors = new Candidates(list, list.size());
+		}
+		return constructors;
+	}
+}
@@ -0,0 +1,131 @@
+package de.robv.android.xposed;
+
+/**
+ * Key for the member caches in {@link XposedHelpers}. Classes are compared by identity,
+ * and the hash code is calculated once when the key is set up.
+ *
+ * <p>To avoid allocations when a member is already cached, {@link #lookup} uses a per-thread
+ * probe key. Only when a new entry is stored in the cache, a separate key object is
+ * created with {@link #create}.
+ */
+/* package */ final class MemberKey {
+	public static final int FIELD = 0;
+	public static final int METHOD_EXACT = 1;
+	public static final int METHOD_BEST_MATCH = 2;
+	public static final int CONSTRUCTOR_EXACT = 3;
+	public static final int CONSTRUCTOR_BEST_MATCH = 4;
+
+	private static final ThreadLocal<MemberKey> probes = new ThreadLocal<MemberKey>() {
+		@Override
+		protected MemberKey initialValue() {
+			return new MemberKey();
+		}
+	};
+
+	private int kind;
+	private Class<?> clazz;
+	private String name;
+	private Class<?>[] parameterTypes;
+	private int hash;
+	// only used by probe keys, one array per length for the types of arguments
+	private Class<?>[][] argumentTypes;
+
+	private MemberKey() {}
+
+	/**
+	 * Looks up a member in the cache without creating a key object.
+	 * @return see {@link MemberCache#get}
+	 */
+	public static Object lookup(MemberCache<MemberKey, ?> cache, int kind, Class<?> clazz, String name, Class<?>[] parameterTypes) {
+		MemberKey probe = probes.get().set(kind, clazz, name, parameterTypes);
+		try {
+			return cache.get(probe);
+		} finally {
+			// don't keep the classes alive
+			probe.clazz = null;
+			probe.parameterTypes = null;
+		}
+	}
+
+	/**
+	 * Like {@link #lookup}, but the parameter types are the classes of the given arguments
+	 * (<code>null</code> for <code>null</code> arguments), see {@link XposedHelpers#getParameterTypes}.
+	 */
+	public static Object lookupByArguments(MemberCache<MemberKey, ?> cache, int kind, Class<?> clazz, String name, Object[] args) {
+		MemberKey probe = probes.get();
+		Class<?>[] types;
+		if (args.length < 8) {
+			if (probe.argumentTypes == null)
+				probe.argumentTypes = new Class<?>[8][];
+			types = probe.argumentTypes[args.length];
+			if (types == null)
+				types = probe.argumentTypes[args.length] = new Class<?>[args.length];
+		} else {
+			types = new Class<?>[args.length];
+		}
+		for (int i = 0; i < args.length; i++)
+			types[i] = (args[i] != null) ? args[i].getClass() : null;
+
+		probe.set(kind, clazz, name, types);
+		try {
+			return cache.get(probe);
+		} finally {
+			probe.clazz = null;
+			probe.parameterTypes = null;
+			for (int i = 0; i < types.length; i++)
+				types[i] = null;
+		}
+	}
+
+	/** Creates a key which can be stored in a cache. */
+	public static MemberKey create(int kind, Class<?> clazz, String name, Class<?>[] parameterTypes) {
+		return new MemberKey().set(kind, clazz, name, (parameterTypes != null) ? parameterTypes.clone() : null);
+	}
+
+	private MemberKey set(int kind, Class<?> clazz, String name, Class<?>[] parameterTypes) {
+		this.kind = kind;
+		this.clazz = clazz;
+		this.name = name;
+		this.parameterTypes = parameterTypes;
+
+		int h = 31 * kind + System.identityHashCode(clazz);
+		if (name != null)
+			h = 31 * h + name.hashCode();
+		if (parameterTypes != null) {
+			for (Class<?> type : parameterTypes)
+				h = 31 * h + System.identityHashCode(type);
+		}
+		this.hash = h;
+		return this;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof MemberKey))
+			return false;
+
+		MemberKey other = (MemberKey) o;
+		if (hash != other.hash || kind != other.kind || clazz != other.clazz)
+			return false;
+		if (name != other.name && (name == null || !name.equals(other.name)))
+			return false;
+
+		Class<?>[] otherTypes = other.parameterTypes;
+		if (parameterTypes == otherTypes)
+			return true;
+		if (parameterTypes == null || otherTypes == null || parameterTypes.length != otherTypes.length)
+			return false;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (parameterTypes[i] != otherTypes[i])
+				return false;
+		}
+		return true;
+	}
+}
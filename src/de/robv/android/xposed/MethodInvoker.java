@@ -0,0 +1,137 @@
+package de.robv.android.xposed;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+
+import de.robv.android.xposed.XposedHelpers.InvocationTargetError;
+
+/**
+ * Calls a method or constructor that has been resolved in advance. Get an instance with
+ * {@link XposedHelpers#getMethodInvoker} or {@link XposedHelpers#getConstructorInvoker} once
+ * and keep it, instead of calling {@link XposedHelpers#callMethod} in a loop.
+ *
+ * <p>Exceptions are handled like in {@link XposedHelpers#callMethod}: exceptions thrown by the
+ * called method are wrapped in an {@link InvocationTargetError}.
+ *
+ * <p>The <code>call()</code> methods with up to four arguments don't allocate an array for the
+ * arguments, but reuse one per thread. Unlike {@link #invoke}, they always pass each argument
+ * as it is, even if it's an array.
+ */
+public final class MethodInvoker {
+	private static final Object[] NO_ARGS = new Object[0];
+	private static final int MAX_FIXED_ARGS = 4;
+	// reflection only reads the arguments before the method is entered, so nested calls can reuse the arrays
+	private static final ThreadLocal<Object[][]> argArrays = new ThreadLocal<Object[][]>() {
+		@Override
+		protected Object[][] initialValue() {
+			Object[][] arrays = new Object[MAX_FIXED_ARGS + 1][];
+			for (int i = 1; i <= MAX_FIXED_ARGS; i++)
+				arrays[i] = new Object[i];
+			return arrays;
+		}
+	};
+
+	private final Method method;
+	private final Constructor<?> constructor;
+
+	/* package */ MethodInvoker(Method method) {
+		this.method = method;
+		this.constructor = null;
+	}
+
+	/* package */ MethodInvoker(Constructor<?> constructor) {
+		this.method = null;
+		this.constructor = constructor;
+	}
+
+	/** Returns the method or constructor, which has already been made accessible. */
+	public Member getMember() {
+		return (method != null) ? method : constructor;
+	}
+
+	/**
+	 * Calls the method for object <code>obj</code> (<code>null</code> for static methods).
+	 * For constructors, <code>obj</code> is ignored and the new instance is returned.
+	 */
+	public Object invoke(Object obj, Object... args) {
+		try {
+			if (method != null)
+				return method.invoke(obj, args);
+			else
+				return constructor.newInstance(args);
+		} catch (IllegalAccessException e) {
+			// should not happen
+			XposedBridge.log(e);
+			throw new IllegalAccessError(e.getMessage());
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (InvocationTargetException e) {
+			throw new InvocationTargetError(e.getCause());
+		} catch (InstantiationException e) {
+			throw new InstantiationError(e.getMessage());
+		}
+	}
+
+	/** Creates a new instance with a constructor invoker, see {@link #invoke}. */
+	public Object newInstance(Object... args) {
+		return invoke(null, args);
+	}
+
+	//#################################################################################################
+	public Object call(Object obj) {
+		return invoke(obj, NO_ARGS);
+	}
+
+	public Object call(Object obj, Object arg1) {
+		Object[] args = argArrays.get()[1];
+		args[0] = arg1;
+		try {
+			return invoke(obj, args);
+		} finally {
+			args[0] = null;
+		}
+	}
+
+	public Object call(Object obj, Object arg1, Object arg2) {
+		Object[] args = argArrays.get()[2];
+		args[0] = arg1;
+		args[1] = arg2;
+		try {
+			return invoke(obj, args);
+		} finally {
+			args[0] = args[1] = null;
+		}
+	}
+
+	public Object call(Object obj, Object arg1, Object arg2, Object arg3) {
+		Object[] args = argArrays.get()[3];
+		args[0] = arg1;
+		args[1] = arg2;
+		args[2] = arg3;
+		try {
+			return invoke(obj, args);
+		} finally {
+			args[0] = args[1] = args[2] = null;
+		}
+	}
+
+	public Object call(Object obj, Object arg1, Object arg2, Object arg3, Object arg4) {
+		Object[] args = argArrays.get()[4];
+		args[0] = arg1;
+		args[1] = arg2;
+		args[2] = arg3;
+		args[3] = arg4;
+		try {
+			return invoke(obj, args);
+		} finally {
+			args[0] = args[1] = args[2] = args[3] = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MethodInvoker[" + getMember() + "]";
+	}
+}
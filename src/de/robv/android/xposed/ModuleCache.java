@@ -0,0 +1,254 @@
+package de.robv.android.xposed;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the content of <code>assets/xposed_init</code> and <code>assets/xposed_scope</code> for
+ * each module APK, together with the interfaces implemented by each class. This avoids opening the APKs just to find out that a
+ * module has nothing to do, e.g. for command line tools.
+ *
+ * <p>Entries are only valid as long as size and modification time of the APK are unchanged.
+ * The file has the following format (big endian):
+ * <pre>
+ * int    magic ("XMC2")
+ * int    number of modules
+ * for each module:
+ *   UTF    APK path
+ *   long   APK size
+ *   long   APK modification time
+ *   int    number of classes
+ *   for each class:
+ *     UTF    class name
+ *     byte   kinds (see KIND_*)
+ *   int    number of scope entries, -1 if the module has no scope
+ *   for each scope entry:
+ *     UTF    package or process name
+ * </pre>
+ */
+/* package */ final class ModuleCache {
+	private static final int MAGIC = 0x584d4332; // "XMC2"
+
+	/** The class implements {@link IXposedHookZygoteInit}. */
+	public static final int KIND_ZYGOTE_INIT = 1;
+	/** The class implements {@link IXposedHookLoadPackage}. */
+	public static final int KIND_LOAD_PACKAGE = 2;
+	/** The class implements {@link IXposedHookInitPackageResources}. */
+	public static final int KIND_INIT_PACKAGE_RESOURCES = 4;
+	/** The class implements {@link IXposedHookCmdInit}. */
+	public static final int KIND_CMD_INIT = 8;
+
+	/** The cached information about one module APK. */
+	public static final class Entry {
+		public final String apk;
+		public final long size;
+		public final long lastModified;
+		public final List<String> classNames;
+		/** Combination of the KIND_* flags for each class, 0 for classes which don't implement IXposedMod */
+		public final byte[] kinds;
+		/** Package and process names from <code>assets/xposed_scope</code>, or <code>null</code> if there is no such file */
+		public final List<String> scope;
+
+		public Entry(String apk, long size, long lastModified, List<String> classNames, byte[] kinds, List<String> scope) {
+			this.apk = apk;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.classNames = Collections.unmodifiableList(classNames);
+			this.kinds = kinds;
+			this.scope = (scope != null) ? Collections.unmodifiableList(scope) : null;
+		}
+
+		/** Returns whether any of the classes implements the interface for the given kind. */
+		public boolean hasKind(int kind) {
+			for (byte classKinds : kinds) {
+				if ((classKinds & kind) != 0)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private final File file;
+	private final HashMap<String, Entry> entries;
+	// entries which are still needed, in the order of modules.list
+	private final LinkedHashMap<String, Entry> usedEntries = new LinkedHashMap<String, Entry>();
+	private boolean changed = false;
+
+	private ModuleCache(File file, HashMap<String, Entry> entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns the flags describing the interfaces the given class implements.
+	 */
+	public static int getKinds(Class<?> moduleClass) {
+		int kinds = 0;
+		if (IXposedHookZygoteInit.class.isAssignableFrom(moduleClass))
+			kinds |= KIND_ZYGOTE_INIT;
+		if (IXposedHookLoadPackage.class.isAssignableFrom(moduleClass))
+			kinds |= KIND_LOAD_PACKAGE;
+		if (IXposedHookInitPackageResources.class.isAssignableFrom(moduleClass))
+			kinds |= KIND_INIT_PACKAGE_RESOURCES;
+		if (IXposedHookCmdInit.class.isAssignableFrom(moduleClass))
+			kinds |= KIND_CMD_INIT;
+		return kinds;
+	}
+
+	/**
+	 * Reads the cache from the given file. If the file doesn't exist or can't be read,
+	 * an empty cache is returned.
+	 */
+	public static ModuleCache load(File file) {
+		HashMap<String, Entry> entries = new HashMap<String, Entry>();
+		if (file.canRead()) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					FileChannel channel = raf.getChannel();
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					readEntries(buffer, entries);
+				} finally {
+					raf.close();
+				}
+			} catch (IOException e) {
+				XposedBridge.log("Could not read module cache: " + e.getMessage());
+				entries.clear();
+			} catch (RuntimeException e) {
+				// e.g. BufferUnderflowException if the file has been truncated
+				XposedBridge.log("Module cache is corrupt, ignoring it: " + e);
+				entries.clear();
+			}
+		}
+		return new ModuleCache(file, entries);
+	}
+
+	private static void readEntries(ByteBuffer buffer, Map<String, Entry> entries) throws IOException {
+		if (buffer.getInt() != MAGIC)
+			throw new IOException("invalid file format");
+
+		// each module needs at least the length of its path, size, modification time and the counts
+		int count = checkCount(buffer, buffer.getInt(), 2 + 8 + 8 + 4 + 4);
+		for (int i = 0; i < count; i++) {
+			String apk = readString(buffer);
+			long size = buffer.getLong();
+			long lastModified = buffer.getLong();
+			int classCount = checkCount(buffer, buffer.getInt(), 2 + 1);
+			List<String> classNames = new ArrayList<String>(classCount);
+			byte[] kinds = new byte[classCount];
+			for (int j = 0; j < classCount; j++) {
+				classNames.add(readString(buffer));
+				kinds[j] = buffer.get();
+			}
+			int scopeCount = buffer.getInt();
+			List<String> scope = null;
+			if (scopeCount >= 0) {
+				checkCount(buffer, scopeCount, 2);
+				scope = new ArrayList<String>(scopeCount);
+				for (int j = 0; j < scopeCount; j++)
+					scope.add(readString(buffer));
+			} else if (scopeCount != -1) {
+				throw new IOException("invalid scope count " + scopeCount);
+			}
+			entries.put(apk, new Entry(apk, size, lastModified, classNames, kinds, scope));
+		}
+	}
+
+	/** Makes sure that the remaining bytes can hold <code>count</code> items of at least <code>minSize</code> bytes. */
+	private static int checkCount(ByteBuffer buffer, int count, int minSize) throws IOException {
+		if (count < 0 || count > buffer.remaining() / minSize)
+			throw new IOException("invalid count " + count);
+		return count;
+	}
+
+	/** Reads a string written by {@link DataOutputStream#writeUTF}, which uses modified UTF-8. */
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getShort(buffer.position()) & 0xffff;
+		byte[] bytes = new byte[2 + length];
+		buffer.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+
+	/**
+	 * Returns the cached information for the given APK, or <code>null</code> if there is none
+	 * or if the APK has been changed since it was cached.
+	 */
+	public synchronized Entry get(String apk, File apkFile) {
+		Entry entry = entries.get(apk);
+		if (entry == null || entry.size != apkFile.length() || entry.lastModified != apkFile.lastModified())
+			return null;
+
+		usedEntries.put(apk, entry);
+		return entry;
+	}
+
+	/** Stores updated information for a module APK. */
+	public synchronized void put(Entry entry) {
+		entries.put(entry.apk, entry);
+		usedEntries.put(entry.apk, entry);
+		changed = true;
+	}
+
+	/**
+	 * Writes the cache back to disk if any entry has been changed or if entries for
+	 * modules which are no longer used have to be removed.
+	 */
+	public synchronized void saveIfChanged() {
+		if (!changed && usedEntries.size() == entries.size())
+			return;
+
+		File dir = file.getParentFile();
+		dir.mkdirs();
+		dir.setReadable(true, false);
+		dir.setExecutable(true, false);
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(usedEntries.size());
+				for (Entry entry : usedEntries.values()) {
+					out.writeUTF(entry.apk);
+					out.writeLong(entry.size);
+					out.writeLong(entry.lastModified);
+					out.writeInt(entry.classNames.size());
+					for (int i = 0; i < entry.kinds.length; i++) {
+						out.writeUTF(entry.classNames.get(i));
+						out.writeByte(entry.kinds[i]);
+					}
+					if (entry.scope != null) {
+						out.writeInt(entry.scope.size());
+						for (String name : entry.scope)
+							out.writeUTF(name);
+					} else {
+						out.writeInt(-1);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			tmpFile.setReadable(true, false);
+			if (!tmpFile.renameTo(file))
+				throw new IOException("could not rename " + tmpFile + " to " + file);
+			changed = false;
+		} catch (IOException e) {
+			XposedBridge.log("Could not write module cache: " + e.getMessage());
+			tmpFile.delete();
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package de.robv.android.xposed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A compiled, read-only copy of a shared preferences file, which {@link XSharedPreferences} can map
+ * into memory and query directly instead of parsing the XML file. Values are only decoded when
+ * they are requested, so processes don't need to hold a copy of all preferences on their heap.
+ *
+ * <p>The snapshot is stored next to the XML file (with the suffix {@link #SUFFIX}) and records
+ * size and modification time of the XML file it was created from. If they don't match anymore,
+ * the snapshot is ignored. The file has the following format (big endian):
+ * <pre>
+ * int    magic ("XSP1")
+ * long   XML file modification time
+ * long   XML file size
+ * int    number of entries
+ * int[]  offset of each entry, sorted by the (unsigned) UTF-8 bytes of the keys
+ * for each entry:
+ *   short  key length, followed by the UTF-8 bytes of the key
+ *   byte   type (see TYPE_*)
+ *   value  int, long, float or boolean (as byte), or for strings: int length and UTF-8 bytes,
+ *          or for string sets: int count and the strings
+ * </pre>
+ */
+/* package */ final class PreferencesSnapshot {
+	public static final String SUFFIX = ".bin";
+
+	private static final int MAGIC = 0x58535031; // "XSP1"
+	private static final int HEADER_SIZE = 4 + 8 + 8 + 4;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_LONG = 3;
+	private static final byte TYPE_FLOAT = 4;
+	private static final byte TYPE_BOOLEAN = 5;
+	private static final byte TYPE_STRING_SET = 6;
+
+	private final ByteBuffer buffer;
+	private final int count;
+
+	private PreferencesSnapshot(ByteBuffer buffer, int count) {
+		this.buffer = buffer;
+		this.count = count;
+	}
+
+	/** Returns the snapshot file for a shared preferences file. */
+	public static File getFile(File prefFile) {
+		return new File(prefFile.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Maps the snapshot for the given XML file into memory.
+	 * @return the snapshot or <code>null</code> if there is none or it's outdated or invalid
+	 */
+	public static PreferencesSnapshot open(File prefFile, long lastModified, long fileSize) {
+		File file = getFile(prefFile);
+		if (!file.canRead())
+			return null;
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				long size = channel.size();
+				if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+					return null;
+				// the mapping stays valid after the file has been closed
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				if (buffer.getInt(0) != MAGIC || buffer.getLong(4) != lastModified || buffer.getLong(12) != fileSize)
+					return null;
+				int count = buffer.getInt(20);
+				if (count < 0 || HEADER_SIZE + (long) count * 4 > size || !isValid(buffer, count)) {
+					XposedBridge.log("Ignoring invalid preferences snapshot " + file);
+					return null;
+				}
+				return new PreferencesSnapshot(buffer, count);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			XposedBridge.log("Could not read preferences snapshot " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Checks that all offsets and lengths point into the buffer, so that values can be read
+	 * later without further checks. This only walks over the entries, nothing is decoded.
+	 */
+	private static boolean isValid(ByteBuffer buffer, int count) {
+		long size = buffer.capacity();
+		long dataStart = HEADER_SIZE + (long) count * 4;
+		for (int i = 0; i < count; i++) {
+			long pos = buffer.getInt(HEADER_SIZE + i * 4);
+			if (pos < dataStart || pos + 3 > size)
+				return false;
+			pos += 2 + (buffer.getShort((int) pos) & 0xffff);
+			if (pos + 1 > size)
+				return false;
+			byte type = buffer.get((int) pos++);
+			switch (type) {
+				case TYPE_NULL:
+					break;
+				case TYPE_STRING:
+					pos = skipString(buffer, pos, size);
+					break;
+				case TYPE_INT:
+				case TYPE_FLOAT:
+					pos += 4;
+					break;
+				case TYPE_LONG:
+					pos += 8;
+					break;
+				case TYPE_BOOLEAN:
+					pos += 1;
+					break;
+				case TYPE_STRING_SET:
+					if (pos + 4 > size)
+						return false;
+					int setSize = buffer.getInt((int) pos);
+					if (setSize < 0 || setSize > (size - pos) / 4)
+						return false;
+					pos += 4;
+					for (int j = 0; j < setSize && pos >= 0; j++)
+						pos = skipString(buffer, pos, size);
+					break;
+				default:
+					return false;
+			}
+			if (pos < 0 || pos > size)
+				return false;
+		}
+		return true;
+	}
+
+	/** Returns the position after the string at <code>pos</code>, or -1 if it doesn't fit into the buffer. */
+	private static long skipString(ByteBuffer buffer, long pos, long size) {
+		if (pos + 4 > size)
+			return -1;
+		int length = buffer.getInt((int) pos);
+		if (length < 0 || pos + 4 + length > size)
+			return -1;
+		return pos + 4 + length;
+	}
+
+	//#################################################################################################
+	/**
+	 * Returns the offset of the value for the given key (pointing to its type),
+	 * or -1 if the key doesn't exist.
+	 */
+	private int find(String key) {
+		byte[] keyBytes = toUtf8(key);
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int offset = buffer.getInt(HEADER_SIZE + mid * 4);
+			int cmp = compareKey(offset, keyBytes);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return offset + 2 + keyBytes.length;
+		}
+		return -1;
+	}
+
+	/** Compares the key of the entry at the given offset with <code>key</code>, without decoding it. */
+	private int compareKey(int offset, byte[] key) {
+		int length = buffer.getShort(offset) & 0xffff;
+		int start = offset + 2;
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int a = buffer.get(start + i) & 0xff;
+			int b = key[i] & 0xff;
+			if (a != b)
+				return a - b;
+		}
+		return length - key.length;
+	}
+
+	public boolean contains(String key) {
+		return find(key) >= 0;
+	}
+
+	/** Returns the value for the given key, or <code>null</code> if it doesn't exist. */
+	public Object get(String key) {
+		int offset = find(key);
+		return (offset >= 0) ? readValue(offset) : null;
+	}
+
+	/** Decodes all entries, e.g. for {@link XSharedPreferences#getAll}. */
+	public Map<String, Object> getAll() {
+		HashMap<String, Object> map = new HashMap<String, Object>(count * 2);
+		for (int i = 0; i < count; i++) {
+			int offset = buffer.getInt(HEADER_SIZE + i * 4);
+			int length = buffer.getShort(offset) & 0xffff;
+			map.put(readString(offset + 2, length), readValue(offset + 2 + length));
+		}
+		return map;
+	}
+
+	private Object readValue(int offset) {
+		byte type = buffer.get(offset);
+		int pos = offset + 1;
+		switch (type) {
+			case TYPE_STRING:
+				return readString(pos + 4, buffer.getInt(pos));
+			case TYPE_INT:
+				return buffer.getInt(pos);
+			case TYPE_LONG:
+				return buffer.getLong(pos);
+			case TYPE_FLOAT:
+				return buffer.getFloat(pos);
+			case TYPE_BOOLEAN:
+				return buffer.get(pos) != 0;
+			case TYPE_STRING_SET:
+				int size = buffer.getInt(pos);
+				pos += 4;
+				Set<String> set = new HashSet<String>(size * 2);
+				for (int i = 0; i < size; i++) {
+					int length = buffer.getInt(pos);
+					set.add(readString(pos + 4, length));
+					pos += 4 + length;
+				}
+				return set;
+			default:
+				return null;
+		}
+	}
+
+	private String readString(int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] toUtf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//#################################################################################################
+	private static final Comparator<byte[]> KEY_COMPARATOR = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++) {
+				int x = a[i] & 0xff;
+				int y = b[i] & 0xff;
+				if (x != y)
+					return x - y;
+			}
+			return a.length - b.length;
+		}
+	};
+
+	/**
+	 * Writes a snapshot of <code>map</code>, which has been read from <code>prefFile</code> with
+	 * the given modification time and size. The file is made world-readable.
+	 * @throws IOException if the file couldn't be written or the map contains unsupported values
+	 */
+	public static void write(File prefFile, Map<String, ?> map, long lastModified, long fileSize) throws IOException {
+		TreeMap<byte[], Object> sorted = new TreeMap<byte[], Object>(KEY_COMPARATOR);
+		for (Map.Entry<String, ?> entry : map.entrySet()) {
+			byte[] key = toUtf8(entry.getKey());
+			if (key.length > 0xffff)
+				throw new IOException("key is too long: " + entry.getKey());
+			sorted.put(key, entry.getValue());
+		}
+
+		// the entries are encoded first to know their offsets
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		DataOutputStream entriesOut = new DataOutputStream(entries);
+		int[] offsets = new int[sorted.size()];
+		int base = HEADER_SIZE + offsets.length * 4;
+		int i = 0;
+		for (Map.Entry<byte[], Object> entry : sorted.entrySet()) {
+			offsets[i++] = base + entriesOut.size();
+			entriesOut.writeShort(entry.getKey().length);
+			entriesOut.write(entry.getKey());
+			writeValue(entriesOut, entry.getValue());
+		}
+		entriesOut.flush();
+
+		File file = getFile(prefFile);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		boolean written = false;
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile));
+		try {
+			out.writeInt(MAGIC);
+			out.writeLong(lastModified);
+			out.writeLong(fileSize);
+			out.writeInt(offsets.length);
+			for (int offset : offsets)
+				out.writeInt(offset);
+			entries.writeTo(out);
+			written = true;
+		} finally {
+			out.close();
+			if (!written)
+				tmpFile.delete();
+		}
+		tmpFile.setReadable(true, false);
+		if (!tmpFile.renameTo(file)) {
+			tmpFile.delete();
+			throw new IOException("could not rename " + tmpFile + " to " + file);
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TYPE_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeByte((Boolean) value ? 1 : 0);
+		} else if (value instanceof Set) {
+			Set<?> set = (Set<?>) value;
+			out.writeByte(TYPE_STRING_SET);
+			out.writeInt(set.size());
+			for (Object element : set) {
+				if (!(element instanceof String))
+					throw new IOException("unsupported element in string set: " + element);
+				writeString(out, (String) element);
+			}
+		} else {
+			throw new IOException("unsupported value type: " + value.getClass().getName());
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = toUtf8(s);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
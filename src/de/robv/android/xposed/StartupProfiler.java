@@ -0,0 +1,204 @@
+package de.robv.android.xposed;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how much time loading each module takes during startup, split into the different
+ * phases (creating the class loader, reading <code>assets/xposed_init</code>, loading and
+ * instantiating the classes, calling the init methods and installing hooks).
+ * The result is written as JSON to <code>BASE_DIR/log/startup.json</code> (for Zygote)
+ * or <code>BASE_DIR/log/startup_&lt;startClassName&gt;.json</code> (for command line tools).
+ */
+/* package */ final class StartupProfiler {
+	private StartupProfiler() {}
+
+	/** Timings for one module APK. All durations are in nanoseconds. */
+	public static final class ModuleRecord {
+		public final String apk;
+		public long classLoaderNanos;
+		public long readInitNanos;
+		public final List<ClassRecord> classes = new ArrayList<ClassRecord>();
+		public final List<HookRecord> hooks = new ArrayList<HookRecord>();
+		public int callbacks;
+
+		private ModuleRecord(String apk) {
+			this.apk = apk;
+		}
+
+		public ClassRecord addClass(String className) {
+			ClassRecord record = new ClassRecord(className);
+			classes.add(record);
+			return record;
+		}
+
+		public long getTotalNanos() {
+			long total = classLoaderNanos + readInitNanos;
+			for (ClassRecord record : classes)
+				total += record.loadClassNanos + record.newInstanceNanos + record.initNanos;
+			return total;
+		}
+	}
+
+	/** Timings for one class listed in <code>assets/xposed_init</code>. */
+	public static final class ClassRecord {
+		public final String className;
+		public long loadClassNanos;
+		public long newInstanceNanos;
+		/** Whether instantiating the class was deferred until a package in its scope is loaded */
+		public boolean lazy;
+		/** Time spent in <code>initZygote()</code> or <code>initCmdApp()</code>, including the hooks it installed */
+		public long initNanos;
+
+		private ClassRecord(String className) {
+			this.className = className;
+		}
+	}
+
+	/** One call to {@link XposedBridge#hookMethod} or one committed {@link HookBatch}. */
+	public static final class HookRecord {
+		public final String target;
+		public final int callbacks;
+		public final long nanos;
+
+		private HookRecord(String target, int callbacks, long nanos) {
+			this.target = target;
+			this.callbacks = callbacks;
+			this.nanos = nanos;
+		}
+	}
+
+	private static final List<ModuleRecord> modules = new ArrayList<ModuleRecord>();
+	private static volatile ModuleRecord currentModule = null;
+	private static long startNanos = 0;
+	private static long endNanos = 0;
+
+	/** Called when the framework starts initializing. */
+	public static synchronized void start() {
+		startNanos = System.nanoTime();
+	}
+
+	/** Creates the record for a module, in the order in which they are listed. */
+	public static synchronized ModuleRecord newModule(String apk) {
+		ModuleRecord record = new ModuleRecord(apk);
+		modules.add(record);
+		return record;
+	}
+
+	/** Hooks installed from now on are attributed to the given module. */
+	public static synchronized void beginModule(ModuleRecord record) {
+		currentModule = record;
+	}
+
+	public static synchronized void endModule() {
+		currentModule = null;
+	}
+
+	/** Returns whether hooks are currently attributed to a module, i.e. whether recording them makes sense. */
+	public static boolean isRecordingHooks() {
+		return currentModule != null;
+	}
+
+	public static synchronized void hookInstalled(Member method, int callbacks, long nanos) {
+		hookInstalled(String.valueOf(method), callbacks, nanos);
+	}
+
+	public static synchronized void hookInstalled(String target, int callbacks, long nanos) {
+		ModuleRecord module = currentModule;
+		if (module == null)
+			return;
+		module.hooks.add(new HookRecord(target, callbacks, nanos));
+		module.callbacks += callbacks;
+	}
+
+	/** Finishes recording and writes the report. */
+	public static synchronized void finish(String startClassName) {
+		endNanos = System.nanoTime();
+		currentModule = null;
+
+		File file = new File(XposedBridge.BASE_DIR + "log/"
+				+ (startClassName == null ? "startup.json" : "startup_" + startClassName + ".json"));
+		try {
+			Writer writer = new FileWriter(file, false);
+			try {
+				writeJson(writer);
+			} finally {
+				writer.close();
+			}
+			file.setReadable(true, false);
+		} catch (IOException e) {
+			XposedBridge.log(e);
+		}
+	}
+
+	//#################################################################################################
+	private static void writeJson(Writer w) throws IOException {
+		w.write("{\"totalMicros\":" + micros(endNanos - startNanos) + ",\"modules\":[");
+		for (int i = 0; i < modules.size(); i++) {
+			ModuleRecord module = modules.get(i);
+			if (i > 0)
+				w.write(',');
+			w.write("\n{\"apk\":" + quote(module.apk)
+					+ ",\"totalMicros\":" + micros(module.getTotalNanos())
+					+ ",\"classLoaderMicros\":" + micros(module.classLoaderNanos)
+					+ ",\"readInitMicros\":" + micros(module.readInitNanos)
+					+ ",\"hookCount\":" + module.hooks.size()
+					+ ",\"callbackCount\":" + module.callbacks
+					+ ",\"classes\":[");
+			for (int j = 0; j < module.classes.size(); j++) {
+				ClassRecord record = module.classes.get(j);
+				if (j > 0)
+					w.write(',');
+				w.write("{\"name\":" + quote(record.className)
+						+ ",\"loadClassMicros\":" + micros(record.loadClassNanos)
+						+ ",\"newInstanceMicros\":" + micros(record.newInstanceNanos)
+						+ ",\"lazy\":" + record.lazy
+						+ ",\"initMicros\":" + micros(record.initNanos) + "}");
+			}
+			w.write("],\"hooks\":[");
+			for (int j = 0; j < module.hooks.size(); j++) {
+				HookRecord record = module.hooks.get(j);
+				if (j > 0)
+					w.write(',');
+				w.write("{\"target\":" + quote(record.target)
+						+ ",\"callbacks\":" + record.callbacks
+						+ ",\"micros\":" + micros(record.nanos) + "}");
+			}
+			w.write("]}");
+		}
+		w.write("\n]}\n");
+	}
+
+	private static long micros(long nanos) {
+		return nanos / 1000;
+	}
+
+	private static String quote(String s) {
+		if (s == null)
+			return "null";
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':  sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20)
+						sb.append(String.format("\\u%04x", (int) c));
+					else
+						sb.append(c);
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+}
@@ -40,6 +40,8 @@ public abstract class XC_MethodHook extends XCallback {
 		public Throwable throwable = null;
 		public boolean returnEarly = false;
 		
+		private boolean retained = false;
+		
 		/** Returns the result of the method call */
 		public Object getResult() {
 			return result;
@@ -83,6 +85,30 @@ public abstract class XC_MethodHook extends XCallback {
 				throw throwable;
 			return result;
 		}
+		
+		/**
+		 * Call this if a reference to this object is kept after the callback has returned
+		 * (e.g. to use it from another thread). Otherwise, it might be reused for another
+		 * method call if {@link XposedBridge#setParamPoolingEnabled param pooling} is enabled.
+		 */
+		public void retain() {
+			retained = true;
+		}
+		
+		/* package */ boolean isRetained() {
+			return retained;
+		}
+		
+		/** Clears all per-call state so that the object can be used for another method call. */
+		/* package */ void reset() {
+			method = null;
+			thisObject = null;
+			args = null;
+			result = null;
+			throwable = null;
+			returnEarly = false;
+			extra = null;
+		}
 	}
 
 	public class Unhook implements IXUnhook {
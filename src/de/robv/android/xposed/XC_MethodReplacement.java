@@ -27,12 +27,7 @@ public abstract class XC_MethodReplacement extends XC_MethodHook {
 	 */
 	protected abstract Object replaceHookedMethod(MethodHookParam param) throws Throwable;
 	
-	public static final XC_MethodReplacement DO_NOTHING = new XC_MethodReplacement(PRIORITY_HIGHEST*2) {
-    	@Override
-    	protected Object replaceHookedMethod(MethodHookParam param) throws Throwable {
-    		return null;
-    	};
-	};
+	public static final XC_MethodReplacement DO_NOTHING = new ConstantReplacement(PRIORITY_HIGHEST*2, null);
 	
 	/**
 	 * Creates a callback which always returns a specific value
@@ -45,12 +40,22 @@ public abstract class XC_MethodReplacement extends XC_MethodHook {
 	 * @see #returnConstant(Object)
 	 */
 	public static XC_MethodReplacement returnConstant(int priority, final Object result) {
-		return new XC_MethodReplacement(priority) {
-			@Override
-			protected Object replaceHookedMethod(MethodHookParam param) throws Throwable {
-				return result;
-			}
-		};
+		return new ConstantReplacement(priority, result);
+	}
+	
+	/** A replacement with a fixed result, which allows XposedBridge to return it without creating a param. */
+	/* package */ static final class ConstantReplacement extends XC_MethodReplacement {
+		/* package */ final Object result;
+		
+		private ConstantReplacement(int priority, Object result) {
+			super(priority);
+			this.result = result;
+		}
+		
+		@Override
+		protected Object replaceHookedMethod(MethodHookParam param) throws Throwable {
+			return result;
+		}
 	}
 
 }
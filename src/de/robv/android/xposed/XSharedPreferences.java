@@ -25,6 +25,7 @@ public final class XSharedPreferences implements SharedPreferences {
 	private static final String TAG = "ReadOnlySharedPreferences";
 	private final File mFile;
 	private Map<String, Object> mMap;
+	private PreferencesSnapshot mSnapshot;
 	private boolean mLoaded = false;
     private long mLastModified;
     private long mFileSize;
@@ -47,9 +48,54 @@ public final class XSharedPreferences implements SharedPreferences {
 		if (!mFile.exists()) // just in case - the file should never be created if it doesn'e exist
 			return false;
 		
+		File snapshotFile = PreferencesSnapshot.getFile(mFile);
+		if (snapshotFile.exists())
+			snapshotFile.setReadable(true, false);
+		
 		return mFile.setReadable(true, false);
 	}
 	
+	/**
+	 * Compiles a shared preferences file into a binary snapshot next to it, which other processes
+	 * can map into memory instead of parsing the XML file. Modules should call this in their own
+	 * process whenever their preferences have been written, e.g. after {@link Editor#commit}.
+	 * Snapshots which don't match the current XML file are ignored, so a missing update only
+	 * costs performance.
+	 * 
+	 * <p>Only the value types of {@link SharedPreferences} are supported.
+	 * 
+	 * @return <code>true</code> if the snapshot was written
+	 */
+	@SuppressWarnings("unchecked")
+	public static boolean writeSnapshot(File prefFile) {
+		long lastModified = prefFile.lastModified();
+		long fileSize = prefFile.length();
+		BufferedInputStream str = null;
+		try {
+			str = new BufferedInputStream(new FileInputStream(prefFile), 16*1024);
+			Map<String, ?> map = XmlUtils.readMapXml(str);
+			if (map == null)
+				return false;
+			// don't claim that the snapshot is up to date if the file was changed meanwhile
+			if (prefFile.lastModified() != lastModified || prefFile.length() != fileSize)
+				return false;
+			PreferencesSnapshot.write(prefFile, map, lastModified, fileSize);
+			return true;
+		} catch (XmlPullParserException e) {
+			Log.w(TAG, "writeSnapshot", e);
+			return false;
+		} catch (IOException e) {
+			Log.w(TAG, "writeSnapshot", e);
+			return false;
+		} finally {
+			if (str != null) {
+				try {
+					str.close();
+				} catch (IOException ignored) {}
+			}
+		}
+	}
+	
     private void startLoadFromDisk() {
         synchronized (this) {
             mLoaded = false;
@@ -76,6 +122,19 @@ public final class XSharedPreferences implements SharedPreferences {
         if (mFile.canRead()) {
         	lastModified = mFile.lastModified();
         	fileSize = mFile.length();
+        	
+        	// a compiled snapshot can be used without parsing anything
+        	PreferencesSnapshot snapshot = PreferencesSnapshot.open(mFile, lastModified, fileSize);
+        	if (snapshot != null) {
+        		mLoaded = true;
+        		mSnapshot = snapshot;
+        		mMap = null;
+        		mLastModified = lastModified;
+        		mFileSize = fileSize;
+        		notifyAll();
+        		return;
+        	}
+        	
         	BufferedInputStream str = null;
             try {
                 str = new BufferedInputStream(
@@ -98,6 +157,7 @@ public final class XSharedPreferences implements SharedPreferences {
             }
         }
         mLoaded = true;
+        mSnapshot = null;
         if (map != null) {
             mMap = map;
             mLastModified = lastModified;
@@ -137,11 +197,17 @@ public final class XSharedPreferences implements SharedPreferences {
             }
         }
     }
+    
+    private Object getValueLocked(String key) {
+    	return (mSnapshot != null) ? mSnapshot.get(key) : mMap.get(key);
+    }
 	
     @Override
     public Map<String, ?> getAll() {
         synchronized (this) {
             awaitLoadedLocked();
+            if (mSnapshot != null)
+                return mSnapshot.getAll();
             return new HashMap<String, Object>(mMap);
         }
     }
@@ -150,7 +216,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public String getString(String key, String defValue) {
         synchronized (this) {
             awaitLoadedLocked();
-            String v = (String)mMap.get(key);
+            String v = (String)getValueLocked(key);
             return v != null ? v : defValue;
         }
     }
@@ -160,7 +226,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public Set<String> getStringSet(String key, Set<String> defValues) {
         synchronized (this) {
             awaitLoadedLocked();
-            Set<String> v = (Set<String>) mMap.get(key);
+            Set<String> v = (Set<String>) getValueLocked(key);
             return v != null ? v : defValues;
         }
     }
@@ -169,7 +235,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public int getInt(String key, int defValue) {
         synchronized (this) {
             awaitLoadedLocked();
-            Integer v = (Integer)mMap.get(key);
+            Integer v = (Integer)getValueLocked(key);
             return v != null ? v : defValue;
         }
     }
@@ -178,7 +244,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public long getLong(String key, long defValue) {
         synchronized (this) {
             awaitLoadedLocked();
-            Long v = (Long)mMap.get(key);
+            Long v = (Long)getValueLocked(key);
             return v != null ? v : defValue;
         }
     }
@@ -187,7 +253,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public float getFloat(String key, float defValue) {
         synchronized (this) {
             awaitLoadedLocked();
-            Float v = (Float)mMap.get(key);
+            Float v = (Float)getValueLocked(key);
             return v != null ? v : defValue;
         }
     }
@@ -196,7 +262,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public boolean getBoolean(String key, boolean defValue) {
         synchronized (this) {
             awaitLoadedLocked();
-            Boolean v = (Boolean)mMap.get(key);
+            Boolean v = (Boolean)getValueLocked(key);
             return v != null ? v : defValue;
         }
     }
@@ -205,7 +271,7 @@ public final class XSharedPreferences implements SharedPreferences {
     public boolean contains(String key) {
         synchronized (this) {
             awaitLoadedLocked();
-            return mMap.containsKey(key);
+            return (mSnapshot != null) ? mSnapshot.contains(key) : mMap.containsKey(key);
         }
     }
 
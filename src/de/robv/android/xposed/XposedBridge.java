@@ -13,11 +13,11 @@ import android.content.res.XResources;
 import android.os.Build;
 import android.os.Process;
 import android.util.Log;
-import android.util.SparseArray;
 import com.android.internal.os.RuntimeInit;
 import com.android.internal.os.ZygoteInit;
 import dalvik.system.PathClassLoader;
 import de.robv.android.xposed.XC_MethodHook.MethodHookParam;
+import de.robv.android.xposed.callbacks.CallbackSnapshot;
 import de.robv.android.xposed.callbacks.XC_InitPackageResources;
 import de.robv.android.xposed.callbacks.XC_InitPackageResources.InitPackageResourcesParam;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
@@ -29,6 +29,12 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static de.robv.android.xposed.XposedHelpers.*;
 
@@ -112,20 +118,209 @@ public final class XposedBridge {
 	}
 
 	private static class QuickHookInfo {
-		public final ArrayList<XC_MethodHook> callbacks;
+		public final CopyOnWriteSortedList<XC_MethodHook> callbacks;
 		public final MethodIdMember m;
+		private volatile HookMetrics.MethodStats metrics = null;
 
 		public QuickHookInfo(Member reflectedMethod) {
 			this.m = new MethodIdMember(reflectedMethod);
-			this.callbacks = new ArrayList<XC_MethodHook>();
+			this.callbacks = new CopyOnWriteSortedList<XC_MethodHook>();
+		}
+
+		/** Returns the statistics for this method, which are created on first use. */
+		public HookMetrics.MethodStats getMetrics() {
+			HookMetrics.MethodStats stats = metrics;
+			if (stats == null) {
+				synchronized (this) {
+					stats = metrics;
+					if (stats == null)
+						metrics = stats = HookMetrics.createMethodStats(m.method);
+				}
+			}
+			return stats;
+		}
+
+		/**
+		 * Drops the statistics of a callback which has just been removed, unless it's still
+		 * registered a second time. Once no callbacks are left, the statistics of the method
+		 * are dropped as well.
+		 */
+		public synchronized void removeMetrics(XC_MethodHook callback) {
+			HookMetrics.MethodStats stats = metrics;
+			if (stats == null)
+				return;
+
+			Object[] snapshot = callbacks.getSnapshot();
+			if (snapshot.length == 0) {
+				HookMetrics.removeMethodStats(stats);
+				metrics = null;
+				return;
+			}
+			for (Object registered : snapshot) {
+				if (registered == callback)
+					return;
+			}
+			stats.removeCallback(callback);
 		}
 	}
 
+	/**
+	 * A sorted list which is only modified under a lock, but can be read without any locking.
+	 * Every modification publishes a new, immutable array, so {@link #getSnapshot()} always
+	 * returns a consistent view that must not be modified by the caller.
+	 *
+	 * <p>Like the list which was used before, the same element can be added more than once.
+	 * Changes to several lists can also be published at once, see {@link #stageAll}.
+	 */
+	private static final class CopyOnWriteSortedList<E extends Comparable<? super E>> {
+		/** Either the elements or a {@link PendingUpdate} of them. */
+		private volatile Object state = EMPTY_ARRAY;
+
+		public synchronized void add(E e) {
+			Object[] elements = getSnapshot();
+			// the elements are already sorted, so a binary search finds the insertion point
+			int insertAt = Arrays.binarySearch(elements, e);
+			if (insertAt < 0)
+				insertAt = -insertAt - 1;
+			Object[] newElements = new Object[elements.length + 1];
+			System.arraycopy(elements, 0, newElements, 0, insertAt);
+			newElements[insertAt] = e;
+			System.arraycopy(elements, insertAt, newElements, insertAt + 1, elements.length - insertAt);
+			state = newElements;
+		}
+
+		/**
+		 * Adds all given elements. The result only becomes visible when
+		 * <code>commit</code> is {@link BatchCommit#publish published}, at the same time as the
+		 * changes to all other lists in the batch. Afterwards, {@link #settle} must be called.
+		 */
+		@SuppressWarnings("unchecked")
+		public synchronized void stageAll(Collection<? extends E> es, BatchCommit commit) {
+			Object[] elements = getSnapshot();
+			Object[] added = es.toArray();
+			Arrays.sort(added);
+
+			// merge both sorted arrays
+			Object[] merged = new Object[elements.length + added.length];
+			int count = 0;
+			int i = 0;
+			for (int j = 0; j < added.length; j++) {
+				E e = (E) added[j];
+				while (i < elements.length && e.compareTo((E) elements[i]) > 0)
+					merged[count++] = elements[i++];
+				merged[count++] = e;
+			}
+			while (i < elements.length)
+				merged[count++] = elements[i++];
+
+			state = new PendingUpdate(elements, merged, commit);
+		}
+
+		/** Replaces a published {@link PendingUpdate} with its result. */
+		public synchronized void settle() {
+			state = getSnapshot();
+		}
+
+		/** Removes the first occurrence of the element, if there is one. */
+		public synchronized void remove(E e) {
+			Object[] elements = getSnapshot();
+			int index = indexOf(elements, e);
+			if (index == -1)
+				return;
 
-	private static PrintWriter logWriter = null;
-	// log for initialization of a few mods is about 500 bytes, so 2*20 kB (2*~350 lines) should be enough
-	private static final int MAX_LOGFILE_SIZE = 20 * 1024;
+			Object[] newElements = new Object[elements.length - 1];
+			System.arraycopy(elements, 0, newElements, 0, index);
+			System.arraycopy(elements, index + 1, newElements, index, elements.length - index - 1);
+			state = newElements;
+		}
+
+		private static int indexOf(Object[] elements, Object o) {
+			for (int i = 0; i < elements.length; i++) {
+				if (o.equals(elements[i]))
+					return i;
+			}
+			return -1;
+		}
+
+		public Object[] getSnapshot() {
+			Object state = this.state;
+			if (state instanceof PendingUpdate)
+				return ((PendingUpdate) state).get();
+			return (Object[]) state;
+		}
+	}
+
+	/** Publishes the changes to several {@link CopyOnWriteSortedList}s with a single volatile write. */
+	private static final class BatchCommit {
+		private volatile boolean published = false;
+
+		public void publish() {
+			published = true;
+		}
+	}
+
+	private static final class PendingUpdate {
+		private final Object[] oldElements;
+		private final Object[] newElements;
+		private final BatchCommit commit;
+
+		PendingUpdate(Object[] oldElements, Object[] newElements, BatchCommit commit) {
+			this.oldElements = oldElements;
+			this.newElements = newElements;
+			this.commit = commit;
+		}
+
+		Object[] get() {
+			return commit.published ? newElements : oldElements;
+		}
+	}
+
+
+	/**
+	 * Per-thread stack of reusable {@link MethodHookParam} objects. Every (possibly nested)
+	 * hooked method call on the thread uses the param at its own depth.
+	 */
+	private static final class MethodHookParamPool {
+		private MethodHookParam[] params = new MethodHookParam[4];
+		private int depth = 0;
+
+		public MethodHookParam obtain() {
+			if (depth == params.length)
+				params = Arrays.copyOf(params, depth * 2);
+
+			MethodHookParam param = params[depth];
+			if (param == null) {
+				param = new MethodHookParam();
+				params[depth] = param;
+			}
+			depth++;
+			return param;
+		}
+
+		public void release(MethodHookParam param) {
+			depth--;
+			if (param.isRetained())
+				// a callback still holds a reference to it, so it must not be reused
+				params[depth] = null;
+			else
+				param.reset();
+		}
+	}
+
+
+	private static AsyncLogWriter logWriter = null;
+	private static final LogRateLimiter logRateLimiter = new LogRateLimiter();
+	private static final int MAX_MODULE_LOADER_THREADS = 4;
 	private static boolean disableHooks = false;
+	private static boolean lazyActivation = false;
+	private static volatile boolean paramPoolingEnabled = false;
+	private static volatile boolean metricsEnabled = false;
+	private static final ThreadLocal<MethodHookParamPool> paramPool = new ThreadLocal<MethodHookParamPool>() {
+		@Override
+		protected MethodHookParamPool initialValue() {
+			return new MethodHookParamPool();
+		}
+	};
 
 	private static final Object[] EMPTY_ARRAY = new Object[0];
 	public static final ClassLoader BOOTCLASSLOADER = ClassLoader.getSystemClassLoader();
@@ -133,28 +328,28 @@ public final class XposedBridge {
 	public static final String BASE_DIR = "/data/data/de.robv.android.xposed.installer/";
 
 	// built-in handlers
-	private static final SparseArray<QuickHookInfo> hookedMethodCallbacks = new SparseArray<QuickHookInfo>();
-	private static final TreeSet<XC_LoadPackage> loadedPackageCallbacks = new TreeSet<XC_LoadPackage>();
-	private static final TreeSet<XC_InitPackageResources> initPackageResourcesCallbacks = new TreeSet<XC_InitPackageResources>();
+	// lookups don't lock, so handleHookedMethod() can read it without any synchronization
+	private static final IntHashMap<QuickHookInfo> hookedMethodCallbacks = new IntHashMap<QuickHookInfo>();
+	private static final LoadPackageCallbacks loadedPackageCallbacks = new LoadPackageCallbacks();
+	private static volatile CallbackSnapshot<XC_InitPackageResources> initPackageResourcesCallbacks = CallbackSnapshot.empty();
+	private static final Object initPackageResourcesLock = new Object();
 
 	/**
 	 * Called when native methods and other things are initialized, but before preloading classes etc.
 	 */
 	private static void main(String[] args) {
+		StartupProfiler.start();
+
 		// the class the VM has been created for or null for the Zygote process
 		String startClassName = getStartClassName();
 
 		// initialize the Xposed framework and modules
 		try {
-			// initialize log file
-			try {
-				File logFile = new File(BASE_DIR + "log/debug.log");
-				if (startClassName == null && logFile.length() > MAX_LOGFILE_SIZE)
-					logFile.renameTo(new File(BASE_DIR + "log/debug.log.old"));
-				logWriter = new PrintWriter(new FileWriter(logFile, true));
-				logFile.setReadable(true, false);
-				logFile.setWritable(true, false);
-			} catch (IOException ignored) {}
+			// initialize log files, each process writes to its own file
+			File logDir = new File(BASE_DIR + "log");
+			if (startClassName == null)
+				LogStore.prune(logDir, null);
+			logWriter = new AsyncLogWriter(new LogStore(logDir), logRateLimiter);
 
 			String date = DateFormat.getDateTimeInstance().format(new Date());
 			log("-----------------\n" + date + " UTC\n"
@@ -193,6 +388,7 @@ public final class XposedBridge {
 		// normal process initialization (for new Activity, Service, BroadcastReceiver etc.)
 		findAndHookMethod(ActivityThread.class, "handleBindApplication", "android.app.ActivityThread.AppBindData", new XC_MethodHook() {
 			protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+				startAsyncLogging();
 				ActivityThread activityThread = (ActivityThread)param.thisObject;
 				ApplicationInfo appInfo = (ApplicationInfo)getObjectField(param.args[0], "appInfo");
 				ComponentName instrumentationName = (ComponentName)getObjectField(param.args[0], "instrumentationName");
@@ -210,13 +406,17 @@ public final class XposedBridge {
 				LoadedApk loadedApk = activityThread.getPackageInfoNoCheck(appInfo, compatInfo);
 				XResources.setPackageNameForResDir(appInfo.packageName, loadedApk.getResDir());
 
-				LoadPackageParam lpparam = new LoadPackageParam(loadedPackageCallbacks);
+				String processName = (String)getObjectField(param.args[0], "processName");
+				LoadPackageParam lpparam = new LoadPackageParam(loadedPackageCallbacks.getSnapshot(appInfo.packageName, processName));
 				lpparam.packageName = appInfo.packageName;
-				lpparam.processName = (String)getObjectField(param.args[0], "processName");
+				lpparam.processName = processName;
 				lpparam.classLoader = loadedApk.getClassLoader();
 				lpparam.appInfo = appInfo;
 				lpparam.isFirstApplication = true;
-				XC_LoadPackage.callAll(lpparam);
+				if (lazyActivation)
+					callAllWithStats(lpparam);
+				else
+					LoadPackageDispatcher.callAll(lpparam);
 			}
 		});
 
@@ -224,15 +424,16 @@ public final class XposedBridge {
 		findAndHookMethod("com.android.server.ServerThread", null, "run", new XC_MethodHook() {
 			@Override
 			protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+				startAsyncLogging();
 				loadedPackagesInProcess.add("android");
 
-				LoadPackageParam lpparam = new LoadPackageParam(loadedPackageCallbacks);
+				LoadPackageParam lpparam = new LoadPackageParam(loadedPackageCallbacks.getSnapshot("android", "android"));
 				lpparam.packageName = "android";
 				lpparam.processName = "android"; // it's actually system_server, but other functions return this as well
 				lpparam.classLoader = BOOTCLASSLOADER;
 				lpparam.appInfo = null;
 				lpparam.isFirstApplication = true;
-				XC_LoadPackage.callAll(lpparam);
+				LoadPackageDispatcher.callAll(lpparam);
 			}
 		});
 
@@ -250,13 +451,14 @@ public final class XposedBridge {
 				if ((Boolean)getBooleanField(loadedApk, "mIncludeCode") == false)
 					return;
 
-				LoadPackageParam lpparam = new LoadPackageParam(loadedPackageCallbacks);
+				String processName = AndroidAppHelper.currentProcessName();
+				LoadPackageParam lpparam = new LoadPackageParam(loadedPackageCallbacks.getSnapshot(packageName, processName));
 				lpparam.packageName = packageName;
-				lpparam.processName = AndroidAppHelper.currentProcessName();
+				lpparam.processName = processName;
 				lpparam.classLoader = loadedApk.getClassLoader();
 				lpparam.appInfo = loadedApk.getApplicationInfo();
 				lpparam.isFirstApplication = false;
-				XC_LoadPackage.callAll(lpparam);
+				LoadPackageDispatcher.callAll(lpparam);
 			}
 		});
 
@@ -311,115 +513,386 @@ public final class XposedBridge {
 		XResources.init();
 	}
 
+	/**
+	 * Calls the load-package callbacks and logs (at debug level) how many of them were skipped
+	 * because of their scope, how long the remaining ones took and how much of that was spent
+	 * to activate modules.
+	 */
+	private static void callAllWithStats(LoadPackageParam lpparam) {
+		int registered = loadedPackageCallbacks.size();
+		int activationsBefore = LazyLoadPackage.getActivationCount();
+		long activationNanosBefore = LazyLoadPackage.getActivationNanos();
+		long start = System.nanoTime();
+		LoadPackageDispatcher.callAll(lpparam);
+		long nanos = System.nanoTime() - start;
+
+		logDebug("Called " + lpparam.callbacks.size() + " of " + registered + " load-package callbacks for "
+				+ lpparam.packageName + " in " + (nanos / 1000) + " us, "
+				+ (registered - lpparam.callbacks.size()) + " skipped by scope, "
+				+ (LazyLoadPackage.getActivationCount() - activationsBefore) + " modules activated in "
+				+ ((LazyLoadPackage.getActivationNanos() - activationNanosBefore) / 1000) + " us");
+	}
+
 	/**
 	 * Try to load all modules defined in <code>BASE_DIR/conf/modules.list</code>
 	 */
 	private static void loadModules(String startClassName) throws IOException {
 		BufferedReader apks = new BufferedReader(new FileReader(BASE_DIR + "conf/modules.list"));
+		List<String> apkList = new ArrayList<String>();
 		String apk;
 		while ((apk = apks.readLine()) != null) {
-			loadModule(apk, startClassName);
+			apkList.add(apk);
 		}
 		apks.close();
+
+		ModuleCache cache = ModuleCache.load(new File(BASE_DIR + "cache/modules.cache"));
+		lazyActivation = startClassName == null && new File(BASE_DIR + "conf/lazy_activation").exists();
+		LoadPackageDispatcher.setParallel(startClassName == null && new File(BASE_DIR + "conf/parallel_load_package").exists());
+		if (apkList.size() > 1 && new File(BASE_DIR + "conf/parallel_loading").exists()) {
+			loadModulesParallel(apkList, startClassName, cache);
+		} else {
+			for (String moduleApk : apkList) {
+				StartupProfiler.ModuleRecord profile = StartupProfiler.newModule(moduleApk);
+				initModule(preloadModule(moduleApk, profile, cache, startClassName), startClassName);
+			}
+		}
+		// command line tools usually don't have write access to the cache directory
+		if (startClassName == null)
+			cache.saveIfChanged();
+		StartupProfiler.finish(startClassName);
 	}
 
 	/**
-	 * Load a module from an APK by calling the init(String) method for all classes defined
-	 * in <code>assets/xposed_init</code>.
+	 * Preload the modules in a few background threads, but initialize them in the order in which
+	 * they are listed, so that callbacks are registered in a deterministic order.
 	 */
-	private static void loadModule(String apk, String startClassName) {
-		log("Loading modules from " + apk);
+	private static void loadModulesParallel(List<String> apks, final String startClassName, final ModuleCache cache) {
+		int threads = Math.min(Math.min(Runtime.getRuntime().availableProcessors(), MAX_MODULE_LOADER_THREADS), apks.size());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<PreloadedModule>> preloadedModules = new ArrayList<Future<PreloadedModule>>(apks.size());
+			for (final String apk : apks) {
+				final StartupProfiler.ModuleRecord profile = StartupProfiler.newModule(apk);
+				preloadedModules.add(executor.submit(new Callable<PreloadedModule>() {
+					@Override
+					public PreloadedModule call() {
+						return preloadModule(apk, profile, cache, startClassName);
+					}
+				}));
+			}
 
-		if (!new File(apk).exists()) {
-			log("  File does not exist");
-			return;
+			for (Future<PreloadedModule> preloadedModule : preloadedModules) {
+				try {
+					initModule(preloadedModule.get(), startClassName);
+				} catch (ExecutionException e) {
+					log(e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			log(e);
+		} finally {
+			// Zygote must not have any other threads when it forks
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ignored) {}
+		}
+	}
+
+	/**
+	 * A module APK with the classes defined in <code>assets/xposed_init</code> already loaded,
+	 * but not yet instantiated.
+	 */
+	private static final class PreloadedModule {
+		public final String apk;
+		public final StartupProfiler.ModuleRecord profile;
+		public final List<PreloadedClass> classes = new ArrayList<PreloadedClass>();
+		/** Package and process names from <code>assets/xposed_scope</code>, or <code>null</code> for all packages */
+		public String[] scope = null;
+		/** Log messages (String or Throwable) which are written once the module is initialized */
+		private final List<Object> messages = new ArrayList<Object>();
+
+		public PreloadedModule(String apk, StartupProfiler.ModuleRecord profile) {
+			this.apk = apk;
+			this.profile = profile;
 		}
 
+		public void log(Object message) {
+			messages.add(message);
+		}
+
+		public void flushLog() {
+			for (Object message : messages) {
+				if (message instanceof Throwable)
+					XposedBridge.log((Throwable) message);
+				else
+					XposedBridge.log((String) message);
+			}
+			messages.clear();
+		}
+	}
+
+	private static final class PreloadedClass {
+		public final Class<?> moduleClass;
+		public final StartupProfiler.ClassRecord profile;
+
+		public PreloadedClass(Class<?> moduleClass, StartupProfiler.ClassRecord profile) {
+			this.moduleClass = moduleClass;
+			this.profile = profile;
+		}
+	}
+
+	/**
+	 * Open a module APK and load all classes defined in <code>assets/xposed_init</code>.
+	 * This doesn't execute any code of the module, so it can be called from any thread.
+	 * If the module hasn't changed since it was cached, the class names are taken from
+	 * the cache and the APK isn't opened at all if the module has nothing to do.
+	 */
+	private static PreloadedModule preloadModule(String apk, StartupProfiler.ModuleRecord profile,
+			ModuleCache cache, String startClassName) {
+		PreloadedModule module = new PreloadedModule(apk, profile);
+		module.log("Loading modules from " + apk);
+
+		File apkFile = new File(apk);
+		if (!apkFile.exists()) {
+			module.log("  File does not exist");
+			return module;
+		}
+
+		ModuleCache.Entry cached = cache.get(apk, apkFile);
+		// command line tools only need classes which implement IXposedHookCmdInit
+		int requiredKinds = (startClassName == null) ? ~0 : ModuleCache.KIND_CMD_INIT;
+		if (cached != null && !cached.hasKind(requiredKinds)) {
+			module.log("  Module has no classes for this process, skipping it");
+			return module;
+		}
+
+		long start = System.nanoTime();
 		ClassLoader mcl = new PathClassLoader(apk, BOOTCLASSLOADER);
+		profile.classLoaderNanos = System.nanoTime() - start;
+
+		List<String> classNames;
+		List<String> scope;
+		if (cached != null) {
+			classNames = cached.classNames;
+			scope = cached.scope;
+		} else {
+			start = System.nanoTime();
+			classNames = readModuleClassNames(mcl, module);
+			scope = readModuleScope(mcl, module);
+			profile.readInitNanos = System.nanoTime() - start;
+			if (classNames == null)
+				return module;
+		}
+		if (scope != null) {
+			module.scope = scope.toArray(new String[scope.size()]);
+			module.log("  Module is only active for " + scope);
+		}
+
+		byte[] kinds = new byte[classNames.size()];
+		boolean complete = true;
+		for (int i = 0; i < kinds.length; i++) {
+			String moduleClassName = classNames.get(i);
+			if (cached != null && (cached.kinds[i] & requiredKinds) == 0)
+				continue;
+
+			StartupProfiler.ClassRecord classProfile = profile.addClass(moduleClassName);
+			try {
+				module.log("  Loading class " + moduleClassName);
+				start = System.nanoTime();
+				Class<?> moduleClass = mcl.loadClass(moduleClassName);
+				classProfile.loadClassNanos = System.nanoTime() - start;
+				kinds[i] = (byte) ModuleCache.getKinds(moduleClass);
+
+				if (!IXposedMod.class.isAssignableFrom(moduleClass)) {
+					module.log("    This class doesn't implement any sub-interface of IXposedMod, skipping it");
+					continue;
+				}
+
+				module.classes.add(new PreloadedClass(moduleClass, classProfile));
+			} catch (Throwable t) {
+				module.log(t);
+				complete = false;
+			}
+		}
+
+		// only cache modules which could be loaded completely, so that errors are logged again next time
+		if (cached == null && complete)
+			cache.put(new ModuleCache.Entry(apk, apkFile.length(), apkFile.lastModified(), classNames, kinds, scope));
+		return module;
+	}
+
+	/**
+	 * Read the class names from <code>assets/xposed_init</code>, ignoring empty lines and comments.
+	 * @return the class names or <code>null</code> if the file couldn't be read
+	 */
+	private static List<String> readModuleClassNames(ClassLoader mcl, PreloadedModule module) {
 		InputStream is = mcl.getResourceAsStream("assets/xposed_init");
 		if (is == null) {
-			log("assets/xposed_init not found in the APK");
-			return;
+			module.log("assets/xposed_init not found in the APK");
+			return null;
 		}
+		return readAssetLines(is, module);
+	}
+
+	/**
+	 * Read the package and process names from <code>assets/xposed_scope</code>, which modules can
+	 * provide if their {@link IXposedHookLoadPackage} classes only need to be called for these.
+	 * @return the names or <code>null</code> if the module should be called for all packages
+	 */
+	private static List<String> readModuleScope(ClassLoader mcl, PreloadedModule module) {
+		InputStream is = mcl.getResourceAsStream("assets/xposed_scope");
+		if (is == null)
+			return null;
+		return readAssetLines(is, module);
+	}
 
-		BufferedReader moduleClassesReader = new BufferedReader(new InputStreamReader(is));
+	/** Read the lines of an asset, ignoring empty lines and comments. */
+	private static List<String> readAssetLines(InputStream is, PreloadedModule module) {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is));
 		try {
-			String moduleClassName;
-			while ((moduleClassName = moduleClassesReader.readLine()) != null) {
-				moduleClassName = moduleClassName.trim();
-				if (moduleClassName.isEmpty() || moduleClassName.startsWith("#"))
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
 					continue;
+				lines.add(line);
+			}
+		} catch (IOException e) {
+			module.log(e);
+			return null;
+		} finally {
+			try {
+				is.close();
+			} catch (IOException ignored) {}
+		}
+		return lines;
+	}
 
+	/**
+	 * Initialize a preloaded module by calling the init methods of all its classes.
+	 */
+	private static void initModule(PreloadedModule module, String startClassName) {
+		module.flushLog();
+		StartupProfiler.beginModule(module.profile);
+		try {
+			for (PreloadedClass preloadedClass : module.classes) {
+				StartupProfiler.ClassRecord classProfile = preloadedClass.profile;
 				try {
-					log("  Loading class " + moduleClassName);
-					Class<?> moduleClass = mcl.loadClass(moduleClassName);
-
-					if (!IXposedMod.class.isAssignableFrom(moduleClass)) {
-						log("    This class doesn't implement any sub-interface of IXposedMod, skipping it");
+					// modules which only need to be called for a few packages are instantiated there
+					if (lazyActivation && module.scope != null && LazyLoadPackage.isSupported(preloadedClass.moduleClass)) {
+						hookLoadPackage(new LazyLoadPackage(preloadedClass.moduleClass, module.scope));
+						classProfile.lazy = true;
 						continue;
 					}
 
 					// call the init(String) method of the module
-					final Object moduleInstance = moduleClass.newInstance();
-					if (startClassName == null) {
-						if (moduleInstance instanceof IXposedHookZygoteInit) {
-							IXposedHookZygoteInit.StartupParam param = new IXposedHookZygoteInit.StartupParam();
-							param.modulePath = apk;
-							((IXposedHookZygoteInit)moduleInstance).initZygote(param);
-						}
-
-						if (moduleInstance instanceof IXposedHookLoadPackage)
-							hookLoadPackage(new IXposedHookLoadPackage.Wrapper((IXposedHookLoadPackage)moduleInstance));
-
-						if (moduleInstance instanceof IXposedHookInitPackageResources)
-							hookInitPackageResources(
-									new IXposedHookInitPackageResources.Wrapper((IXposedHookInitPackageResources)moduleInstance));
-					} else {
-						if (moduleInstance instanceof IXposedHookCmdInit) {
-							IXposedHookCmdInit.StartupParam param = new IXposedHookCmdInit.StartupParam();
-							param.modulePath = apk;
-							param.startClassName = startClassName;
-							((IXposedHookCmdInit)moduleInstance).initCmdApp(param);
+					long start = System.nanoTime();
+					final Object moduleInstance = preloadedClass.moduleClass.newInstance();
+					classProfile.newInstanceNanos = System.nanoTime() - start;
+
+					start = System.nanoTime();
+					try {
+						if (startClassName == null) {
+							if (moduleInstance instanceof IXposedHookZygoteInit) {
+								IXposedHookZygoteInit.StartupParam param = new IXposedHookZygoteInit.StartupParam();
+								param.modulePath = module.apk;
+								((IXposedHookZygoteInit)moduleInstance).initZygote(param);
+							}
+
+							if (moduleInstance instanceof IXposedHookLoadPackage)
+								hookLoadPackage(new IXposedHookLoadPackage.Wrapper((IXposedHookLoadPackage)moduleInstance, module.scope));
+
+							if (moduleInstance instanceof IXposedHookInitPackageResources)
+								hookInitPackageResources(
+										new IXposedHookInitPackageResources.Wrapper((IXposedHookInitPackageResources)moduleInstance));
+						} else {
+							if (moduleInstance instanceof IXposedHookCmdInit) {
+								IXposedHookCmdInit.StartupParam param = new IXposedHookCmdInit.StartupParam();
+								param.modulePath = module.apk;
+								param.startClassName = startClassName;
+								((IXposedHookCmdInit)moduleInstance).initCmdApp(param);
+							}
 						}
+					} finally {
+						classProfile.initNanos = System.nanoTime() - start;
 					}
 				} catch (Throwable t) {
 					log(t);
 				}
 			}
-		} catch (IOException e) {
-			log(e);
 		} finally {
-			try {
-				is.close();
-			} catch (IOException ignored) {}
+			StartupProfiler.endModule();
 		}
 	}
 
 	/**
-	 * Writes a message to BASE_DIR/log/debug.log (needs to have chmod 777)
+	 * Writes a message to BASE_DIR/log/debug_&lt;pid&gt;.bin and as text to BASE_DIR/log/debug.log
+	 * (the directory needs to have chmod 777).
+	 * In app processes, the message is written asynchronously. If too many messages are logged
+	 * at once, some of them might be dropped from the file, but they are always written to logcat.
+	 * Use {@link LogStore#readMerged} to get the messages of all processes as text.
 	 *
 	 * @param text log message
 	 */
-	public synchronized static void log(String text) {
-		Log.i("Xposed", text);
-		if (logWriter != null) {
-			logWriter.println(text);
-			logWriter.flush();
-		}
+	public static void log(String text) {
+		Log.i(LogRecord.DEFAULT_TAG, text);
+		AsyncLogWriter writer = logWriter;
+		if (writer != null)
+			writer.write(new LogRecord(System.currentTimeMillis(), LogRecord.LEVEL_INFO, LogRecord.DEFAULT_TAG, null,
+					LogRecord.MSG_TEXT, text, 0, null));
+	}
+
+	/** Like {@link #log(String)}, but with debug level, for details which are only needed for analysis. */
+	private static void logDebug(String text) {
+		Log.d(LogRecord.DEFAULT_TAG, text);
+		AsyncLogWriter writer = logWriter;
+		if (writer != null)
+			writer.write(new LogRecord(System.currentTimeMillis(), LogRecord.LEVEL_DEBUG, LogRecord.DEFAULT_TAG, null,
+					LogRecord.MSG_TEXT, text, 0, null));
 	}
 
 	/**
-	 * Log the stack trace
+	 * Log the stack trace. If the same stack trace is logged too often, it is suppressed
+	 * (in logcat as well) and only counted.
 	 *
 	 * @param t The Throwable object for the stacktrace
 	 * @see XposedBridge#log(String)
 	 */
-	public synchronized static void log(Throwable t) {
-		Log.i("Xposed", Log.getStackTraceString(t));
-		if (logWriter != null) {
-			t.printStackTrace(logWriter);
-			logWriter.flush();
-		}
+	public static void log(Throwable t) {
+		log(LogRecord.LEVEL_ERROR, null, LogRecord.MSG_TEXT, t);
+	}
+
+	/**
+	 * Log the stack trace, attributed to a module and call site. Identical stack traces from the
+	 * same call site are rate-limited before they are formatted, so this is cheap for floods.
+	 */
+	/* package */ static void log(int level, String module, int messageId, Throwable t) {
+		long now = System.currentTimeMillis();
+		long stackHash = LogRecord.hashStackTrace(t);
+		if (!logRateLimiter.allow(now, level, module, messageId, t.toString(), stackHash))
+			return;
+
+		String stackTrace = Log.getStackTraceString(t);
+		int length = stackTrace.length();
+		if (length > 0 && stackTrace.charAt(length - 1) == '\n')
+			stackTrace = stackTrace.substring(0, length - 1);
+
+		Log.i(LogRecord.DEFAULT_TAG, (module != null) ? module + ": " + stackTrace : stackTrace);
+		AsyncLogWriter writer = logWriter;
+		if (writer != null)
+			writer.write(new LogRecord(now, level, LogRecord.DEFAULT_TAG, module, messageId, null, stackHash, stackTrace));
+	}
+
+	/**
+	 * Switches logging to a background thread. Must only be called after the process
+	 * has been forked from Zygote.
+	 */
+	private static void startAsyncLogging() {
+		AsyncLogWriter writer = logWriter;
+		if (writer != null)
+			writer.start();
 	}
 
 	/**
@@ -433,6 +906,7 @@ public final class XposedBridge {
 			throw new IllegalArgumentException("only methods and constructors can be hooked");
 		}
 
+		long start = StartupProfiler.isRecordingHooks() ? System.nanoTime() : 0;
 		boolean newMethod = false;
 		QuickHookInfo hi;
 		int methodId = getMethodId(hookMethod);
@@ -443,10 +917,7 @@ public final class XposedBridge {
 				hookedMethodCallbacks.put(methodId, hi);
 				newMethod = true;
 			}
-		}
-		synchronized (hi) {
 			hi.callbacks.add(callback);
-			Collections.sort(hi.callbacks, XCallback.PRIORITY_COMPARATOR);
 		}
 		if (newMethod) {
 			Class<?> declaringClass = hookMethod.getDeclaringClass();
@@ -454,6 +925,8 @@ public final class XposedBridge {
 			hookMethodNative(declaringClass, slot);
 		}
 
+		if (start != 0)
+			StartupProfiler.hookInstalled(hookMethod, 1, System.nanoTime() - start);
 		return callback.new Unhook(hookMethod);
 	}
 
@@ -464,30 +937,109 @@ public final class XposedBridge {
 	 * @param callback   The reference to the callback as specified in {@link #hookMethod}
 	 */
 	public static void unhookMethod(Member hookMethod, XC_MethodHook callback) {
-		QuickHookInfo hi;
-		int methodId = getMethodId(hookMethod);
+		QuickHookInfo hi = hookedMethodCallbacks.get(getMethodId(hookMethod));
+		if (hi == null)
+			return;
 		synchronized (hookedMethodCallbacks) {
-			hi = hookedMethodCallbacks.get(methodId);
-			if (hi == null)
-				return;
-		}
-		synchronized (hi) {
 			hi.callbacks.remove(callback);
+			hi.removeMetrics(callback);
 		}
 	}
 
+	/**
+	 * Reuse {@link MethodHookParam} objects for hooked method calls instead of allocating a new one
+	 * for every call. When enabled, callbacks must not keep a reference to the param after they
+	 * returned, unless they call {@link MethodHookParam#retain()}.
+	 */
+	public static void setParamPoolingEnabled(boolean enabled) {
+		paramPoolingEnabled = enabled;
+	}
+
+	/**
+	 * Record invocation counts and timings for all hooked methods and their callbacks.
+	 * This adds some overhead to every call of a hooked method, so it should only be enabled
+	 * for analysis.
+	 * @see #getMetricsSnapshot()
+	 * @see HookMetrics#startPeriodicDump(long)
+	 */
+	public static void setMetricsEnabled(boolean enabled) {
+		metricsEnabled = enabled;
+	}
+
+	/**
+	 * Returns the statistics recorded while {@link #setMetricsEnabled metrics} were enabled,
+	 * one entry per hooked method.
+	 */
+	public static List<HookMetrics.MethodSnapshot> getMetricsSnapshot() {
+		return HookMetrics.snapshot();
+	}
+
 	public static Set<XC_MethodHook.Unhook> hookAllMethods(Class<?> hookClass, String methodName, XC_MethodHook callback) {
-		Set<XC_MethodHook.Unhook> unhooks = new HashSet<XC_MethodHook.Unhook>();
-		for (Member method : hookClass.getDeclaredMethods())
-			if (method.getName().equals(methodName))
-				unhooks.add(hookMethod(method, callback));
-		return unhooks;
+		return new HashSet<XC_MethodHook.Unhook>(new HookBatch().addAllMethods(hookClass, methodName, callback).commit());
 	}
 
 	public static Set<XC_MethodHook.Unhook> hookAllConstructors(Class<?> hookClass, XC_MethodHook callback) {
-		Set<XC_MethodHook.Unhook> unhooks = new HashSet<XC_MethodHook.Unhook>();
-		for (Member constructor : hookClass.getDeclaredConstructors())
-			unhooks.add(hookMethod(constructor, callback));
+		return new HashSet<XC_MethodHook.Unhook>(new HookBatch().addAllConstructors(hookClass, callback).commit());
+	}
+
+	/**
+	 * Installs the hooks collected by a {@link HookBatch}. The method id of each method is
+	 * resolved once and all callbacks for a method are merged into its sorted callbacks at once.
+	 * The new callbacks of all methods become visible at the same time, with a single volatile write.
+	 */
+	/* package */ static List<XC_MethodHook.Unhook> hookBatch(List<Member> methods, List<XC_MethodHook> callbacks) {
+		long start = StartupProfiler.isRecordingHooks() ? System.nanoTime() : 0;
+
+		// group the callbacks by method, keeping the order in which the methods were added
+		LinkedHashMap<Member, ArrayList<XC_MethodHook>> callbacksByMethod = new LinkedHashMap<Member, ArrayList<XC_MethodHook>>();
+		for (int i = 0; i < methods.size(); i++) {
+			ArrayList<XC_MethodHook> methodCallbacks = callbacksByMethod.get(methods.get(i));
+			if (methodCallbacks == null) {
+				methodCallbacks = new ArrayList<XC_MethodHook>(1);
+				callbacksByMethod.put(methods.get(i), methodCallbacks);
+			}
+			methodCallbacks.add(callbacks.get(i));
+		}
+
+		int[] methodIds = new int[callbacksByMethod.size()];
+		int i = 0;
+		for (Member method : callbacksByMethod.keySet())
+			methodIds[i++] = getMethodId(method);
+
+		List<Member> newMethods = new ArrayList<Member>();
+		List<QuickHookInfo> changed = new ArrayList<QuickHookInfo>(methodIds.length);
+		BatchCommit commit = new BatchCommit();
+		synchronized (hookedMethodCallbacks) {
+			i = 0;
+			for (Map.Entry<Member, ArrayList<XC_MethodHook>> entry : callbacksByMethod.entrySet()) {
+				int methodId = methodIds[i++];
+				QuickHookInfo hi = hookedMethodCallbacks.get(methodId);
+				if (hi == null) {
+					hi = new QuickHookInfo(entry.getKey());
+					hookedMethodCallbacks.put(methodId, hi);
+					newMethods.add(entry.getKey());
+				}
+				hi.callbacks.stageAll(entry.getValue(), commit);
+				changed.add(hi);
+			}
+
+			commit.publish();
+			for (QuickHookInfo hi : changed)
+				hi.callbacks.settle();
+		}
+
+		for (Member method : newMethods) {
+			int slot = getIntField(method, "slot");
+			hookMethodNative(method.getDeclaringClass(), slot);
+		}
+
+		List<XC_MethodHook.Unhook> unhooks = new ArrayList<XC_MethodHook.Unhook>(methods.size());
+		for (i = 0; i < methods.size(); i++)
+			unhooks.add(callbacks.get(i).new Unhook(methods.get(i)));
+
+		if (start != 0)
+			StartupProfiler.hookInstalled("batch of " + callbacksByMethod.size() + " methods",
+					callbacks.size(), System.nanoTime() - start);
 		return unhooks;
 	}
 
@@ -504,11 +1056,9 @@ public final class XposedBridge {
 //			}
 //		}
 
-		QuickHookInfo hi;
-		synchronized (hookedMethodCallbacks) {
-			hi = hookedMethodCallbacks.get(methodId);
-		}
-		if (hi == null || hi.callbacks.isEmpty() || disableHooks) {
+		QuickHookInfo hi = hookedMethodCallbacks.get(methodId);
+		Object[] callbacksSnapshot = hi.callbacks.getSnapshot();
+		if (callbacksSnapshot.length == 0 || disableHooks) {
 			try {
 				return invokeOriginalMethodId(hi.m, thisObject, args);
 			} catch (InvocationTargetException e) {
@@ -516,31 +1066,93 @@ public final class XposedBridge {
 			}
 		}
 
-		XC_MethodHook[] callbacksAr;
-		synchronized (hi) {
-			callbacksAr = hi.callbacks.toArray(new XC_MethodHook[hi.callbacks.size()]);
+		// if the callback with the highest priority is a replacement, all others would be skipped anyway
+		if (callbacksSnapshot[0] instanceof XC_MethodReplacement)
+			return callReplacement(hi, (XC_MethodReplacement) callbacksSnapshot[0], thisObject, args);
+
+		if (!paramPoolingEnabled) {
+			MethodHookParam param = new MethodHookParam();
+			param.method = hi.m.method;
+			param.thisObject = thisObject;
+			param.args = args;
+			return callHooks(hi, callbacksSnapshot, param, thisObject, args);
 		}
 
-		MethodHookParam param = new MethodHookParam();
-		param.method = hi.m.method;
-		param.thisObject = thisObject;
-		param.args = args;
+		MethodHookParamPool pool = paramPool.get();
+		MethodHookParam param = pool.obtain();
+		try {
+			param.method = hi.m.method;
+			param.thisObject = thisObject;
+			param.args = args;
+			return callHooks(hi, callbacksSnapshot, param, thisObject, args);
+		} finally {
+			pool.release(param);
+		}
+	}
 
-		final int end = callbacksAr.length;
+	/**
+	 * Fast path for methods whose highest-priority callback is a replacement. The original method
+	 * and all other callbacks would be skipped anyway, so only the replacement is called.
+	 */
+	private static Object callReplacement(QuickHookInfo hi, XC_MethodReplacement replacement, Object thisObject, Object[] args) throws Throwable {
+		final HookMetrics.MethodStats stats = metricsEnabled ? hi.getMetrics() : null;
+		if (stats != null)
+			stats.invocations.increment();
+
+		if (replacement instanceof XC_MethodReplacement.ConstantReplacement) {
+			// record the call like for other replacements, so the callback shows up in the metrics
+			if (stats != null)
+				stats.forCallback(replacement).before.record(0);
+			return ((XC_MethodReplacement.ConstantReplacement) replacement).result;
+		}
+
+		final boolean pooled = paramPoolingEnabled;
+		MethodHookParamPool pool = pooled ? paramPool.get() : null;
+		MethodHookParam param = pooled ? pool.obtain() : new MethodHookParam();
+		long start = (stats != null) ? System.nanoTime() : 0;
+		try {
+			param.method = hi.m.method;
+			param.thisObject = thisObject;
+			param.args = args;
+			return replacement.replaceHookedMethod(param);
+		} finally {
+			if (stats != null)
+				stats.forCallback(replacement).before.record(System.nanoTime() - start);
+			if (pooled)
+				pool.release(param);
+		}
+	}
+
+	/**
+	 * Calls the "before" callbacks, the original method (unless a callback requested otherwise) and
+	 * the "after" callbacks, then returns the result or throws the exception stored in the param.
+	 */
+	private static Object callHooks(QuickHookInfo hi, Object[] callbacksSnapshot, MethodHookParam param,
+			Object thisObject, Object[] args) throws Throwable {
+		final HookMetrics.MethodStats stats = metricsEnabled ? hi.getMetrics() : null;
+		if (stats != null)
+			stats.invocations.increment();
+
+		final int end = callbacksSnapshot.length;
 		int before = 0;
 		int after = end - 1;
 
 		// call "before method" callbacks
 		while (before < end) {
+			XC_MethodHook callback = (XC_MethodHook) callbacksSnapshot[before++];
+			long start = (stats != null) ? System.nanoTime() : 0;
 			try {
-				callbacksAr[before++].beforeHookedMethod(param);
+				callback.beforeHookedMethod(param);
 			} catch (Throwable t) {
-				XposedBridge.log(t);
+				log(LogRecord.LEVEL_ERROR, callback.getClass().getName(), LogRecord.MSG_BEFORE_HOOK_FAILED, t);
 
 				// reset result (ignoring what the unexpectedly exiting callback did)
 				param.setResult(null);
 				param.returnEarly = false;
 				continue;
+			} finally {
+				if (stats != null)
+					stats.forCallback(callback).before.record(System.nanoTime() - start);
 			}
 
 			if (param.returnEarly) {
@@ -555,12 +1167,16 @@ public final class XposedBridge {
 
 		// call original method if not requested otherwise
 		if (!param.returnEarly) {
+			long start = (stats != null) ? System.nanoTime() : 0;
 			try {
 				param.result = invokeOriginalMethodId(hi.m, thisObject, args);
 				param.returnEarly = true;
 				param.throwable = null;
 			} catch (InvocationTargetException e) {
 				param.setThrowable(e.getCause());
+			} finally {
+				if (stats != null)
+					stats.original.record(System.nanoTime() - start);
 			}
 		}
 
@@ -569,16 +1185,21 @@ public final class XposedBridge {
 			Object lastResult = param.result;
 			Throwable lastThrowable = param.throwable;
 
+			XC_MethodHook callback = (XC_MethodHook) callbacksSnapshot[after--];
+			long start = (stats != null) ? System.nanoTime() : 0;
 			try {
-				callbacksAr[after--].afterHookedMethod(param);
+				callback.afterHookedMethod(param);
 			} catch (Throwable t) {
-				XposedBridge.log(t);
+				log(LogRecord.LEVEL_ERROR, callback.getClass().getName(), LogRecord.MSG_AFTER_HOOK_FAILED, t);
 
 				// reset to last result (ignoring what the unexpectedly exiting callback did)
 				if (lastThrowable == null)
 					param.setResult(lastResult);
 				else
 					param.setThrowable(lastThrowable);
+			} finally {
+				if (stats != null)
+					stats.forCallback(callback).after.record(System.nanoTime() - start);
 			}
 		}
 
@@ -591,18 +1212,15 @@ public final class XposedBridge {
 
 	/**
 	 * Get notified when a package is loaded. This is especially useful to hook some package-specific methods.
+	 * If the callback has a {@link XC_LoadPackage#getScope scope}, it's only called for these packages and processes.
 	 */
 	public static XC_LoadPackage.Unhook hookLoadPackage(XC_LoadPackage callback) {
-		synchronized (loadedPackageCallbacks) {
-			loadedPackageCallbacks.add(callback);
-		}
+		loadedPackageCallbacks.add(callback);
 		return callback.new Unhook();
 	}
 
 	public static void unhookLoadPackage(XC_LoadPackage callback) {
-		synchronized (loadedPackageCallbacks) {
-			loadedPackageCallbacks.remove(callback);
-		}
+		loadedPackageCallbacks.remove(callback);
 	}
 
 	/**
@@ -611,15 +1229,15 @@ public final class XposedBridge {
 	 * @return
 	 */
 	public static XC_InitPackageResources.Unhook hookInitPackageResources(XC_InitPackageResources callback) {
-		synchronized (initPackageResourcesCallbacks) {
-			initPackageResourcesCallbacks.add(callback);
+		synchronized (initPackageResourcesLock) {
+			initPackageResourcesCallbacks = initPackageResourcesCallbacks.with(callback);
 		}
 		return callback.new Unhook();
 	}
 
 	public static void unhookInitPackageResources(XC_InitPackageResources callback) {
-		synchronized (initPackageResourcesCallbacks) {
-			initPackageResourcesCallbacks.remove(callback);
+		synchronized (initPackageResourcesLock) {
+			initPackageResourcesCallbacks = initPackageResourcesCallbacks.without(callback);
 		}
 	}
 
@@ -11,21 +11,22 @@ import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.WeakHashMap;
 
 import android.content.res.Resources;
 import external.org.apache.commons.lang3.ClassUtils;
-import external.org.apache.commons.lang3.reflect.MemberUtils;
 import external.org.apache.commons.lang3.reflect.MethodUtils;
 
 public class XposedHelpers {
-	private static final HashMap<String, Field> fieldCache = new HashMap<String, Field>();
-	private static final HashMap<String, Method> methodCache = new HashMap<String, Method>();
-	private static final HashMap<String, Constructor<?>> constructorCache = new HashMap<String, Constructor<?>>();
-	private static final WeakHashMap<Object, HashMap<String, Object>> additionalFields = new WeakHashMap<Object, HashMap<String, Object>>();
+	// lookups from any thread are allowed, so the caches must be thread-safe
+	private static final int MAX_CACHE_SIZE = 4096;
+	private static final MemberCache<MemberKey, Field> fieldCache = new MemberCache<MemberKey, Field>(MAX_CACHE_SIZE);
+	private static final MemberCache<MemberKey, Method> methodCache = new MemberCache<MemberKey, Method>(MAX_CACHE_SIZE);
+	private static final MemberCache<MemberKey, Constructor<?>> constructorCache = new MemberCache<MemberKey, Constructor<?>>(MAX_CACHE_SIZE);
+	private static final MemberCache<MemberKey, FieldAccessor> fieldAccessorCache = new MemberCache<MemberKey, FieldAccessor>(MAX_CACHE_SIZE);
+	private static final MemberCache<MemberKey, MethodInvoker> invokerCache = new MemberCache<MemberKey, MethodInvoker>(MAX_CACHE_SIZE);
+	private static final AdditionalFields additionalFields = new AdditionalFields();
 	
 	/**
 	 * Look up a class with the specified class loader (or the boot class loader if
@@ -57,44 +58,51 @@ public class XposedHelpers {
 	 * If the field was not found, a {@link NoSuchFieldError} will be thrown.
 	 */
 	public static Field findField(Class<?> clazz, String fieldName) {
-		StringBuilder sb = new StringBuilder(clazz.getName());
-		sb.append('#');
-		sb.append(fieldName);
-		String fullFieldName = sb.toString();
-		
-		if (fieldCache.containsKey(fullFieldName)) {
-			Field field = fieldCache.get(fullFieldName);
-			if (field == null)
-				throw new NoSuchFieldError(fullFieldName);
-			return field;
+		Object cached = MemberKey.lookup(fieldCache, MemberKey.FIELD, clazz, fieldName, null);
+		if (cached != null) {
+			if (cached == MemberCache.NOT_FOUND)
+				throw new NoSuchFieldError(clazz.getName() + '#' + fieldName);
+			return (Field) cached;
 		}
 		
-		try {
-			Field field = findFieldRecursiveImpl(clazz, fieldName);
-			field.setAccessible(true);
-			fieldCache.put(fullFieldName, field);
-			return field;
-		} catch (NoSuchFieldException e) {
-			fieldCache.put(fullFieldName, null);
-			throw new NoSuchFieldError(fullFieldName);
+		MemberKey key = MemberKey.create(MemberKey.FIELD, clazz, fieldName, null);
+		Field field = MemberIndex.findField(clazz, fieldName);
+		if (field == null) {
+			fieldCache.putNotFound(key);
+			throw new NoSuchFieldError(clazz.getName() + '#' + fieldName);
 		}
+		field.setAccessible(true);
+		fieldCache.put(key, field);
+		return field;
 	}
 	
-	private static Field findFieldRecursiveImpl(Class<?> clazz, String fieldName) throws NoSuchFieldException {
-		try {
-			return clazz.getDeclaredField(fieldName);
-		} catch (NoSuchFieldException e) {
-			while (true) {
-				clazz = clazz.getSuperclass();
-				if (clazz == null || clazz.equals(Object.class))
-					break;
-				
-				try {
-					return clazz.getDeclaredField(fieldName);
-				} catch (NoSuchFieldException ignored) {}
-			}
-			throw e;
-		}
+	/**
+	 * Returns an accessor for a field, which is looked up like in {@link #findField}.
+	 * Accessors are cached per class and field name, but callers should still keep a reference
+	 * instead of calling this method again.
+	 * If the field was not found, a {@link NoSuchFieldError} will be thrown.
+	 */
+	public static FieldAccessor getFieldAccessor(Class<?> clazz, String fieldName) {
+		Object cached = MemberKey.lookup(fieldAccessorCache, MemberKey.FIELD, clazz, fieldName, null);
+		if (cached != null)
+			return (FieldAccessor) cached;
+		
+		FieldAccessor accessor = new FieldAccessor(findField(clazz, fieldName));
+		fieldAccessorCache.put(MemberKey.create(MemberKey.FIELD, clazz, fieldName, null), accessor);
+		return accessor;
+	}
+	
+	/**
+	 * Returns a set of fields which can be read and written together, see {@link FieldSet}.
+	 * The fields are looked up like in {@link #findField}, so they can be declared in superclasses.
+	 * Field sets are not cached, so callers should create them once and keep a reference.
+	 * If one of the fields was not found, a {@link NoSuchFieldError} will be thrown.
+	 */
+	public static FieldSet getFieldSet(Class<?> clazz, String... fieldNames) {
+		Field[] fields = new Field[fieldNames.length];
+		for (int i = 0; i < fieldNames.length; i++)
+			fields[i] = findField(clazz, fieldNames[i]);
+		return new FieldSet(fields);
 	}
 	
 	/**
@@ -163,29 +171,22 @@ public class XposedHelpers {
 	 * If the method was not found, a {@link NoSuchMethodError} will be thrown.
 	 */
 	public static Method findMethodExact(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
-		StringBuilder sb = new StringBuilder(clazz.getName());
-		sb.append('#');
-		sb.append(methodName);
-		sb.append(getParametersString(parameterTypes));
-		sb.append("#exact");
-		String fullMethodName = sb.toString();
-		
-		if (methodCache.containsKey(fullMethodName)) {
-			Method method = methodCache.get(fullMethodName);
-			if (method == null)
-				throw new NoSuchMethodError(fullMethodName);
-			return method;
+		Object cached = MemberKey.lookup(methodCache, MemberKey.METHOD_EXACT, clazz, methodName, parameterTypes);
+		if (cached != null) {
+			if (cached == MemberCache.NOT_FOUND)
+				throw new NoSuchMethodError(getFullName(clazz, methodName, parameterTypes, "#exact"));
+			return (Method) cached;
 		}
 		
-		try {
-			Method method = clazz.getDeclaredMethod(methodName, parameterTypes);
-			method.setAccessible(true);
-			methodCache.put(fullMethodName, method);
-			return method;
-		} catch (NoSuchMethodException e) {
-			methodCache.put(fullMethodName, null);
-			throw new NoSuchMethodError(fullMethodName);
+		MemberKey key = MemberKey.create(MemberKey.METHOD_EXACT, clazz, methodName, parameterTypes);
+		Method method = MemberIndex.findMethodExact(clazz, methodName, parameterTypes);
+		if (method == null) {
+			methodCache.putNotFound(key);
+			throw new NoSuchMethodError(getFullName(clazz, methodName, parameterTypes, "#exact"));
 		}
+		method.setAccessible(true);
+		methodCache.put(key, method);
+		return method;
 	}
 
 	/**
@@ -228,50 +229,25 @@ public class XposedHelpers {
 	 * @see MethodUtils#getMatchingAccessibleMethod
 	 */
 	public static Method findMethodBestMatch(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
-		StringBuilder sb = new StringBuilder(clazz.getName());
-		sb.append('#');
-		sb.append(methodName);
-		sb.append(getParametersString(parameterTypes));
-		sb.append("#bestmatch");
-		String fullMethodName = sb.toString();
-		
-		if (methodCache.containsKey(fullMethodName)) {
-			Method method = methodCache.get(fullMethodName);
-			if (method == null)
-				throw new NoSuchMethodError(fullMethodName);
-			return method;
+		Object cached = MemberKey.lookup(methodCache, MemberKey.METHOD_BEST_MATCH, clazz, methodName, parameterTypes);
+		if (cached != null) {
+			if (cached == MemberCache.NOT_FOUND)
+				throw new NoSuchMethodError(getFullName(clazz, methodName, parameterTypes, "#bestmatch"));
+			return (Method) cached;
 		}
 		
-		try {
-			Method method = findMethodExact(clazz, methodName, parameterTypes);
-			methodCache.put(fullMethodName, method);
-			return method;
-		} catch (NoSuchMethodError ignored) {}
-		
-		Method bestMatch = null;
-		for (int i = 0; i < 2; i++) {
-			Method[] methods = (i == 0) ? clazz.getDeclaredMethods() : clazz.getMethods();
-			for (Method method : methods) {
-				// compare name and parameters
-				if (method.getName().equals(methodName) && ClassUtils.isAssignable(parameterTypes, method.getParameterTypes(), true)) {
-					// get accessible version of method
-					if (bestMatch == null || MemberUtils.compareParameterTypes(
-							method.getParameterTypes(),
-							bestMatch.getParameterTypes(),
-							parameterTypes) < 0) {
-						bestMatch = method;
-					}
-				}
-			}
-		}
+		MemberKey key = MemberKey.create(MemberKey.METHOD_BEST_MATCH, clazz, methodName, parameterTypes);
+		Method bestMatch = MemberIndex.findMethodExact(clazz, methodName, parameterTypes);
+		if (bestMatch == null)
+			bestMatch = MemberIndex.findMethodBestMatch(clazz, methodName, parameterTypes);
 		
 		if (bestMatch != null) {
 			bestMatch.setAccessible(true);
-			methodCache.put(fullMethodName, bestMatch);
+			methodCache.put(key, bestMatch);
 			return bestMatch;
 		} else {
-			NoSuchMethodError e = new NoSuchMethodError(fullMethodName);
-			methodCache.put(fullMethodName, null);
+			NoSuchMethodError e = new NoSuchMethodError(getFullName(clazz, methodName, parameterTypes, "#bestmatch"));
+			methodCache.putNotFound(key);
 			throw e;
 		}
 	}
@@ -306,6 +282,50 @@ public class XposedHelpers {
 		return findMethodBestMatch(clazz, methodName, parameterTypes);
 	}
 	
+	/**
+	 * Returns an invoker for the method which {@link #findMethodBestMatch(Class, String, Class...)}
+	 * finds for these parameter types. Invokers are cached per class, name and parameter types.
+	 */
+	public static MethodInvoker getMethodInvoker(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+		Object cached = MemberKey.lookup(invokerCache, MemberKey.METHOD_BEST_MATCH, clazz, methodName, parameterTypes);
+		if (cached != null)
+			return (MethodInvoker) cached;
+		
+		MethodInvoker invoker = new MethodInvoker(findMethodBestMatch(clazz, methodName, parameterTypes));
+		invokerCache.put(MemberKey.create(MemberKey.METHOD_BEST_MATCH, clazz, methodName, parameterTypes), invoker);
+		return invoker;
+	}
+	
+	/**
+	 * Returns an invoker for the constructor which {@link #findConstructorBestMatch(Class, Class...)}
+	 * finds for these parameter types. Invokers are cached per class and parameter types.
+	 */
+	public static MethodInvoker getConstructorInvoker(Class<?> clazz, Class<?>... parameterTypes) {
+		Object cached = MemberKey.lookup(invokerCache, MemberKey.CONSTRUCTOR_BEST_MATCH, clazz, null, parameterTypes);
+		if (cached != null)
+			return (MethodInvoker) cached;
+		
+		MethodInvoker invoker = new MethodInvoker(findConstructorBestMatch(clazz, parameterTypes));
+		invokerCache.put(MemberKey.create(MemberKey.CONSTRUCTOR_BEST_MATCH, clazz, null, parameterTypes), invoker);
+		return invoker;
+	}
+	
+	/** Like {@link #getMethodInvoker}, but doesn't allocate the array of parameter types if the invoker is cached. */
+	private static MethodInvoker getMethodInvokerForArgs(Class<?> clazz, String methodName, Object[] args) {
+		Object cached = MemberKey.lookupByArguments(invokerCache, MemberKey.METHOD_BEST_MATCH, clazz, methodName, args);
+		if (cached != null)
+			return (MethodInvoker) cached;
+		return getMethodInvoker(clazz, methodName, getParameterTypes(args));
+	}
+	
+	/** Like {@link #getConstructorInvoker}, but doesn't allocate the array of parameter types if the invoker is cached. */
+	private static MethodInvoker getConstructorInvokerForArgs(Class<?> clazz, Object[] args) {
+		Object cached = MemberKey.lookupByArguments(invokerCache, MemberKey.CONSTRUCTOR_BEST_MATCH, clazz, null, args);
+		if (cached != null)
+			return (MethodInvoker) cached;
+		return getConstructorInvoker(clazz, getParameterTypes(args));
+	}
+	
 	/**
 	 * Return an array with the classes of the given objects
 	 */
@@ -324,6 +344,18 @@ public class XposedHelpers {
 		return clazzes;
 	}
 	
+	/** Builds the description of a method or constructor (if <code>methodName</code> is <code>null</code>) for error messages */
+	private static String getFullName(Class<?> clazz, String methodName, Class<?>[] parameterTypes, String suffix) {
+		StringBuilder sb = new StringBuilder(clazz.getName());
+		if (methodName != null) {
+			sb.append('#');
+			sb.append(methodName);
+		}
+		sb.append(getParametersString(parameterTypes));
+		sb.append(suffix);
+		return sb.toString();
+	}
+	
 	private static String getParametersString(Class<?>... clazzes) {
 		StringBuilder sb = new StringBuilder("(");
 		boolean first = true;
@@ -344,71 +376,45 @@ public class XposedHelpers {
 	
 	
 	public static Constructor<?> findConstructorExact(Class<?> clazz, Class<?>... parameterTypes) {
-		StringBuilder sb = new StringBuilder(clazz.getName());
-		sb.append(getParametersString(parameterTypes));
-		sb.append("#exact");
-		String fullConstructorName = sb.toString();
-		
-		if (constructorCache.containsKey(fullConstructorName)) {
-			Constructor<?> constructor = constructorCache.get(fullConstructorName);
-			if (constructor == null)
-				throw new NoSuchMethodError(fullConstructorName);
-			return constructor;
+		Object cached = MemberKey.lookup(constructorCache, MemberKey.CONSTRUCTOR_EXACT, clazz, null, parameterTypes);
+		if (cached != null) {
+			if (cached == MemberCache.NOT_FOUND)
+				throw new NoSuchMethodError(getFullName(clazz, null, parameterTypes, "#exact"));
+			return (Constructor<?>) cached;
 		}
 		
-		try {
-			Constructor<?> constructor = clazz.getDeclaredConstructor(parameterTypes);
-			constructor.setAccessible(true);
-			constructorCache.put(fullConstructorName, constructor);
-			return constructor;
-		} catch (NoSuchMethodException e) {
-			constructorCache.put(fullConstructorName, null);
-			throw new NoSuchMethodError(fullConstructorName);
+		MemberKey key = MemberKey.create(MemberKey.CONSTRUCTOR_EXACT, clazz, null, parameterTypes);
+		Constructor<?> constructor = MemberIndex.findConstructorExact(clazz, parameterTypes);
+		if (constructor == null) {
+			constructorCache.putNotFound(key);
+			throw new NoSuchMethodError(getFullName(clazz, null, parameterTypes, "#exact"));
 		}
+		constructor.setAccessible(true);
+		constructorCache.put(key, constructor);
+		return constructor;
 	}
 	
 
 	public static Constructor<?> findConstructorBestMatch(Class<?> clazz, Class<?>... parameterTypes) {
-		StringBuilder sb = new StringBuilder(clazz.getName());
-		sb.append(getParametersString(parameterTypes));
-		sb.append("#bestmatch");
-		String fullConstructorName = sb.toString();
-		
-		if (constructorCache.containsKey(fullConstructorName)) {
-			Constructor<?> constructor = constructorCache.get(fullConstructorName);
-			if (constructor == null)
-				throw new NoSuchMethodError(fullConstructorName);
-			return constructor;
+		Object cached = MemberKey.lookup(constructorCache, MemberKey.CONSTRUCTOR_BEST_MATCH, clazz, null, parameterTypes);
+		if (cached != null) {
+			if (cached == MemberCache.NOT_FOUND)
+				throw new NoSuchMethodError(getFullName(clazz, null, parameterTypes, "#bestmatch"));
+			return (Constructor<?>) cached;
 		}
 		
-		try {
-			Constructor<?> constructor = findConstructorExact(clazz, parameterTypes);
-			constructorCache.put(fullConstructorName, constructor);
-			return constructor;
-		} catch (NoSuchMethodError ignored) {}
-		
-		Constructor<?> bestMatch = null;
-		Constructor<?>[] constructors = clazz.getDeclaredConstructors();
-		for (Constructor<?> constructor : constructors) {
-		    // compare name and parameters
-			if (ClassUtils.isAssignable(parameterTypes, constructor.getParameterTypes(), true)) {
-			    // get accessible version of method
-	            if (bestMatch == null || MemberUtils.compareParameterTypes(
-	            		constructor.getParameterTypes(),
-						bestMatch.getParameterTypes(),
-						parameterTypes) < 0) {
-            		bestMatch = constructor;
-	            }
-		    }
-		}
+		MemberKey key = MemberKey.create(MemberKey.CONSTRUCTOR_BEST_MATCH, clazz, null, parameterTypes);
+		Constructor<?> bestMatch = MemberIndex.findConstructorExact(clazz, parameterTypes);
+		if (bestMatch == null)
+			bestMatch = MemberIndex.findConstructorBestMatch(clazz, parameterTypes);
 		
 		if (bestMatch != null) {
 			bestMatch.setAccessible(true);
-			constructorCache.put(fullConstructorName, bestMatch);
+			constructorCache.put(key, bestMatch);
 			return bestMatch;
 		} else {
-			NoSuchMethodError e = new NoSuchMethodError(fullConstructorName);
-			constructorCache.put(fullConstructorName, null);
+			NoSuchMethodError e = new NoSuchMethodError(getFullName(clazz, null, parameterTypes, "#bestmatch"));
+			constructorCache.putNotFound(key);
 			throw e;
 		}
 	}
@@ -886,17 +892,7 @@ public class XposedHelpers {
 	 * <code>args</code>. The types for the arguments will be determined automaticall from <code>args</code>
 	 */
 	public static Object callMethod(Object obj, String methodName, Object... args) {
-		try {
-			return findMethodBestMatch(obj.getClass(), methodName, args).invoke(obj, args);
-		} catch (IllegalAccessException e) {
-			// should not happen
-			XposedBridge.log(e);
-			throw new IllegalAccessError(e.getMessage());
-		} catch (IllegalArgumentException e) {
-			throw e;
-		} catch (InvocationTargetException e) {
-			throw new InvocationTargetError(e.getCause());
-		}
+		return getMethodInvokerForArgs(obj.getClass(), methodName, args).invoke(obj, args);
 	}
 	
 	/**
@@ -924,17 +920,7 @@ public class XposedHelpers {
 	 * <code>args</code>. The types for the arguments will be determined automaticall from <code>args</code>
 	 */
 	public static Object callStaticMethod(Class<?> clazz, String methodName, Object... args) {
-		try {
-			return findMethodBestMatch(clazz, methodName, args).invoke(null, args);
-		} catch (IllegalAccessException e) {
-			// should not happen
-			XposedBridge.log(e);
-			throw new IllegalAccessError(e.getMessage());
-		} catch (IllegalArgumentException e) {
-			throw e;
-		} catch (InvocationTargetException e) {
-			throw new InvocationTargetError(e.getCause());
-		}
+		return getMethodInvokerForArgs(clazz, methodName, args).invoke(null, args);
 	}
 	
 	/**
@@ -969,19 +955,7 @@ public class XposedHelpers {
 	
 	//#################################################################################################
 	public static Object newInstance(Class<?> clazz, Object... args) {
-		try {
-			return findConstructorBestMatch(clazz, args).newInstance(args);
-		} catch (IllegalAccessException e) {
-			// should not happen
-			XposedBridge.log(e);
-			throw new IllegalAccessError(e.getMessage());
-		} catch (IllegalArgumentException e) {
-			throw e;
-		} catch (InvocationTargetException e) {
-			throw new InvocationTargetError(e.getCause());
-		} catch (InstantiationException e) {
-			throw new InstantiationError(e.getMessage());
-		}
+		return getConstructorInvokerForArgs(clazz, args).newInstance(args);
 	}
 	
 	public static Object newInstance(Class<?> clazz, Class<?>[] parameterTypes, Object... args) {
@@ -1007,18 +981,7 @@ public class XposedHelpers {
 		if (key == null)
 			throw new NullPointerException("key must not be null");
 		
-		HashMap<String, Object> objectFields;
-		synchronized (additionalFields) {
-			objectFields = additionalFields.get(obj);
-			if (objectFields == null) {
-				objectFields = new HashMap<String, Object>();
-				additionalFields.put(obj, objectFields);
-			}
-		}
-		
-		synchronized (objectFields) {
-			return objectFields.put(key, value);
-		}
+		return additionalFields.put(obj, key, value);
 	}
 	
 	public static Object getAdditionalInstanceField(Object obj, String key) {
@@ -1027,16 +990,7 @@ public class XposedHelpers {
 		if (key == null)
 			throw new NullPointerException("key must not be null");
 		
-		HashMap<String, Object> objectFields;
-		synchronized (additionalFields) {
-			objectFields = additionalFields.get(obj);
-			if (objectFields == null)
-				return null;
-		}
-		
-		synchronized (objectFields) {
-			return objectFields.get(key);
-		}
+		return additionalFields.get(obj, key);
 	}
 	
 	public static Object removeAdditionalInstanceField(Object obj, String key) {
@@ -1045,16 +999,7 @@ public class XposedHelpers {
 		if (key == null)
 			throw new NullPointerException("key must not be null");
 		
-		HashMap<String, Object> objectFields;
-		synchronized (additionalFields) {
-			objectFields = additionalFields.get(obj);
-			if (objectFields == null)
-				return null;
-		}
-		
-		synchronized (objectFields) {
-			return objectFields.remove(key);
-		}
+		return additionalFields.remove(obj, key);
 	}
 	
 	public static Object setAdditionalStaticField(Object obj, String key, Object value) {
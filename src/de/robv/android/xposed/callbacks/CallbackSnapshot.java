@@ -0,0 +1,181 @@
+package de.robv.android.xposed.callbacks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of callbacks, sorted by priority. Registering or unregistering a callback
+ * creates a new snapshot with {@link #with} or {@link #without}, so a {@link XCallback.Param}
+ * can use the current snapshot as its {@link XCallback.Param#callbacks callbacks} without
+ * locking or copying it.
+ *
+ * <p>All methods which would modify the set throw an {@link UnsupportedOperationException}.
+ * The views returned by methods like {@link #headSet} must not be modified either.
+ */
+public final class CallbackSnapshot<T extends XCallback> extends TreeSet<T> {
+	private static final long serialVersionUID = 1L;
+	private static final CallbackSnapshot<XCallback> EMPTY = new CallbackSnapshot<XCallback>(new Object[0]);
+
+	/** The same callbacks as array, for fast iteration in {@link XCallback#callAll}. */
+	/* package */ final Object[] elements;
+
+	@SuppressWarnings("unchecked")
+	private CallbackSnapshot(Object[] elements) {
+		this.elements = elements;
+		for (Object element : elements)
+			super.add((T) element);
+	}
+
+	/** Returns an empty snapshot. */
+	@SuppressWarnings("unchecked")
+	public static <T extends XCallback> CallbackSnapshot<T> empty() {
+		return (CallbackSnapshot<T>) EMPTY;
+	}
+
+	/** Returns a snapshot which contains <code>callback</code> in addition to the callbacks in this one. */
+	public CallbackSnapshot<T> with(T callback) {
+		int index = Arrays.binarySearch(elements, callback);
+		if (index >= 0)
+			return this;
+
+		index = -index - 1;
+		Object[] newElements = new Object[elements.length + 1];
+		System.arraycopy(elements, 0, newElements, 0, index);
+		newElements[index] = callback;
+		System.arraycopy(elements, index, newElements, index + 1, elements.length - index);
+		return new CallbackSnapshot<T>(newElements);
+	}
+
+	/** Returns a snapshot which contains the callbacks in this one, except for <code>callback</code>. */
+	public CallbackSnapshot<T> without(T callback) {
+		int index = Arrays.binarySearch(elements, callback);
+		if (index < 0)
+			return this;
+		else if (elements.length == 1)
+			return empty();
+
+		Object[] newElements = new Object[elements.length - 1];
+		System.arraycopy(elements, 0, newElements, 0, index);
+		System.arraycopy(elements, index + 1, newElements, index, newElements.length - index);
+		return new CallbackSnapshot<T>(newElements);
+	}
+
+	/** Returns a snapshot which contains the callbacks in this one and in <code>other</code>. */
+	@SuppressWarnings("unchecked")
+	public CallbackSnapshot<T> withAll(CallbackSnapshot<? extends T> other) {
+		Object[] a = elements;
+		Object[] b = other.elements;
+		if (b.length == 0)
+			return this;
+		else if (a.length == 0)
+			return (CallbackSnapshot<T>) other;
+
+		Object[] merged = new Object[a.length + b.length];
+		int i = 0, j = 0, count = 0;
+		while (i < a.length && j < b.length) {
+			int cmp = ((XCallback) a[i]).compareTo((XCallback) b[j]);
+			if (cmp < 0) {
+				merged[count++] = a[i++];
+			} else if (cmp > 0) {
+				merged[count++] = b[j++];
+			} else {
+				merged[count++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			merged[count++] = a[i++];
+		while (j < b.length)
+			merged[count++] = b[j++];
+		return new CallbackSnapshot<T>((count == merged.length) ? merged : Arrays.copyOf(merged, count));
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < elements.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public T next() {
+				if (index >= elements.length)
+					throw new NoSuchElementException();
+				return (T) elements[index++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return elements.length == 0;
+	}
+
+	@Override
+	public Object[] toArray() {
+		return elements.clone();
+	}
+
+	/** Returns a modifiable copy of this set. */
+	@Override
+	public Object clone() {
+		return new TreeSet<T>(this);
+	}
+
+	@Override
+	public boolean add(T callback) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends T> callbacks) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove(Object callback) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> callbacks) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> callbacks) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public T pollFirst() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public T pollLast() {
+		throw new UnsupportedOperationException();
+	}
+}
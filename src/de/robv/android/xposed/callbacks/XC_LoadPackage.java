@@ -6,11 +6,32 @@ import android.content.pm.ApplicationInfo;
 import de.robv.android.xposed.XposedBridge;
 
 public abstract class XC_LoadPackage extends XCallback {
+	private final String[] scope;
+	
 	public XC_LoadPackage() {
 		super();
+		this.scope = null;
 	}
 	public XC_LoadPackage(int priority) {
 		super(priority);
+		this.scope = null;
+	}
+	/**
+	 * Creates a callback which is only called for the given package or process names.
+	 * @see #getScope
+	 */
+	public XC_LoadPackage(int priority, String[] scope) {
+		super(priority);
+		this.scope = (scope != null) ? scope.clone() : null;
+	}
+	
+	/**
+	 * Returns the package and process names this callback is interested in, or <code>null</code>
+	 * if it should be called for all packages. A callback with a scope is only called if either
+	 * {@link LoadPackageParam#packageName} or {@link LoadPackageParam#processName} is contained in it.
+	 */
+	public String[] getScope() {
+		return (scope != null) ? scope.clone() : null;
 	}
 	
 	public static class LoadPackageParam extends XCallback.Param {
@@ -37,6 +58,32 @@ public abstract class XC_LoadPackage extends XCallback {
 	
 	public abstract void handleLoadPackage(LoadPackageParam lpparam) throws Throwable;
 	
+	/**
+	 * Returns whether this callback is split into {@link #prepareLoadPackage} and {@link #commitLoadPackage}.
+	 * If parallel loading is enabled, the prepare phase of such callbacks can run on a background thread,
+	 * at the same time as other callbacks. Otherwise, only {@link #handleLoadPackage} is called.
+	 */
+	public boolean isIndependent() {
+		return false;
+	}
+	
+	/**
+	 * Does the work which doesn't depend on other callbacks, e.g. looking up classes and methods.
+	 * This must not install hooks or modify <code>lpparam</code>, as it might run on a background thread.
+	 * @return the result which is passed to {@link #commitLoadPackage}
+	 */
+	public Object prepareLoadPackage(LoadPackageParam lpparam) throws Throwable {
+		return null;
+	}
+	
+	/**
+	 * Finishes what {@link #prepareLoadPackage} started, e.g. by installing hooks. This is always
+	 * called on the thread that loads the package, in the order of the callbacks' priorities.
+	 */
+	public void commitLoadPackage(LoadPackageParam lpparam, Object prepared) throws Throwable {
+		handleLoadPackage(lpparam);
+	}
+	
 	public class Unhook implements IXUnhook {
 		public XC_LoadPackage getCallback() {
 			return XC_LoadPackage.this;
@@ -5,7 +5,6 @@ import de.robv.android.xposed.XposedBridge;
 
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.TreeSet;
 
 public abstract class XCallback implements Comparable<XCallback> {
@@ -19,6 +18,8 @@ public abstract class XCallback implements Comparable<XCallback> {
 	
 	public static class Param {
 		public final TreeSet<? extends XCallback> callbacks;
+		/** The same callbacks as array, which {@link XCallback#callAll} iterates. */
+		/* package */ final Object[] callbackArray;
 		/**
 		 * This can be used to store anything for the scope of the callback.
 		 * Use this instead of instance variables.
@@ -29,12 +30,23 @@ public abstract class XCallback implements Comparable<XCallback> {
 		
 		protected Param() {
 			callbacks = null;
+			callbackArray = null;
 		}
 		
+		/**
+		 * Creates a param for the given callbacks. A {@link CallbackSnapshot} is immutable and
+		 * therefore used directly, other sets are copied.
+		 */
 		@SuppressWarnings("unchecked")
 		protected Param(TreeSet<? extends XCallback> callbacks) {
-			synchronized (callbacks) {
-				this.callbacks = (TreeSet<? extends XCallback>) callbacks.clone();
+			if (callbacks instanceof CallbackSnapshot) {
+				this.callbacks = callbacks;
+				this.callbackArray = ((CallbackSnapshot<?>) callbacks).elements;
+			} else {
+				synchronized (callbacks) {
+					this.callbacks = (TreeSet<? extends XCallback>) callbacks.clone();
+				}
+				this.callbackArray = this.callbacks.toArray();
 			}
 		}
 		
@@ -66,10 +78,10 @@ public abstract class XCallback implements Comparable<XCallback> {
 		if (param.callbacks == null)
 			throw new IllegalStateException("This object was not created for use with callAll");
 		
-		Iterator<? extends XCallback> it = param.callbacks.iterator();
-		while (it.hasNext()) {
+		Object[] callbacks = param.callbackArray;
+		for (int i = 0; i < callbacks.length; i++) {
 			try {
-				it.next().call(param);
+				((XCallback) callbacks[i]).call(param);
 			} catch (Throwable t) { XposedBridge.log(t); }
 		}
 	}